@@ -15,6 +15,7 @@ import dslab.shell.BasicShell;
 import dslab.shell.IShell;
 import dslab.shell.MonitoringShell;
 import dslab.shell.NameserverShell;
+import dslab.shell.TransferShell;
 import dslab.transfer.ITransferServer;
 import dslab.transfer.TransferServer;
 import dslab.util.Config;
@@ -119,6 +120,20 @@ public final class ComponentFactory {
         return new MonitoringShell(server, componentName, in, out);
     }
 
+    /**
+     * Creates a new {@link TransferShell} instance
+     *
+     * @param server        {@link TransferServer} for which the Shell is created
+     * @param componentName name of the Shell
+     * @param in            the input stream used for accepting commands
+     * @param out           the output stream to print to
+     * @return a new TransferShell instance
+     */
+    public static IShell createTransferShell(TransferServer server, String componentName, InputStream in, PrintStream out)
+            throws Exception {
+        return new TransferShell(server, componentName, in, out);
+    }
+
     /**
      * Creates a new {@link INameserver} instance.
      *
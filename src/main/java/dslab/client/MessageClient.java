@@ -17,8 +17,6 @@ import java.util.Base64;
 import java.util.List;
 import java.util.MissingResourceException;
 
-import static java.lang.Integer.parseInt;
-
 public class MessageClient implements IMessageClient, Runnable {
 
     private final String componentId;
@@ -30,6 +28,8 @@ public class MessageClient implements IMessageClient, Runnable {
     private BufferedWriter mailboxServerBufferedWriter;
     private Cipher aesEncCipher;
     private Cipher aesDecCipher;
+    //null if no transfer server is configured
+    private final TransferBalancer transferBalancer;
 
     /**
      * Creates a new client instance.
@@ -44,12 +44,21 @@ public class MessageClient implements IMessageClient, Runnable {
         this.config = config;
         this.in = in;
         this.out = out;
+        this.transferBalancer = createTransferBalancer(config);
 
         this.shell = new Shell(in, out);
         shell.register(this);
         shell.setPrompt(componentId + "-mailbox> ");
     }
 
+    private static TransferBalancer createTransferBalancer(Config config) {
+        try {
+            return new TransferBalancer(config);
+        } catch (MissingResourceException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     @Override
     public void run() {
         try {
@@ -312,63 +321,56 @@ public class MessageClient implements IMessageClient, Runnable {
             if (recipientEmails.length == 0) throw new RuntimeException("Fatal Error 1");
 
 
-            String targetHost;
-            String targetPort;
-            try {
-                targetHost = config.getString("transfer.host"); // format: ip-address:port
-                targetPort = config.getString("transfer.port"); // format: ip-address:port
-            } catch (MissingResourceException mre) {
+            if (transferBalancer == null) {
                 shell.out().println("error could not find transfer server properties");
                 return;
             }
 
-            String response = "no response received yet";
-            try {
-                Socket socket = new Socket(targetHost, parseInt(targetPort));
-
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-                bufferedWriter.write("begin\n");
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                bufferedWriter.write("to " + to + '\n');
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                bufferedWriter.write("from " + from + '\n');
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                bufferedWriter.write("subject " + subject + '\n');
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                bufferedWriter.write("data " + data + '\n');
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                bufferedWriter.write("hash " + hash + '\n');
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                bufferedWriter.write("send\n");
-                bufferedWriter.flush();
-                response = bufferedReader.readLine();
-                if (response.startsWith("error")) throw new IOException("custom");
-
-                shell.out().println("ok");
-            } catch (IOException se) {
-                shell.out().println("error while sending message to " + to + ": " + response);
+            // a message is only sent to another transfer server if the connection could not be established
+            List<TransferBalancer.Endpoint> tried = new ArrayList<>();
+            TransferBalancer.Endpoint endpoint;
+            while ((endpoint = transferBalancer.choose(tried)) != null) {
+                tried.add(endpoint);
+                Socket socket;
+                try {
+                    socket = endpoint.connect();
+                } catch (IOException e) {
+                    continue;
+                }
+                String response = "no response received yet";
+                try (socket) {
+                    BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+
+                    // the greeting ok DMTP2.0
+                    response = bufferedReader.readLine();
+                    if (response == null) throw new EOFException();
+
+                    for (String request : new String[]{"begin", "to " + to, "from " + from, "subject " + subject,
+                            "data " + data, "hash " + hash, "send"}) {
+                        bufferedWriter.write(request + '\n');
+                        bufferedWriter.flush();
+                        response = bufferedReader.readLine();
+                        if (response == null) throw new EOFException();
+                        if (response.startsWith("error")) break;
+                    }
+                    bufferedWriter.write("quit\n");
+                    bufferedWriter.flush();
+                } catch (IOException se) {
+                    endpoint.failed();
+                    shell.out().println("error while sending message to " + to + ": " + response);
+                    return;
+                } finally {
+                    endpoint.release();
+                }
+                if (response.startsWith("error")) {
+                    shell.out().println("error while sending message to " + to + ": " + response);
+                } else {
+                    shell.out().println("ok");
+                }
                 return;
             }
+            shell.out().println("error while sending message to " + to + ": no transfer server reachable");
         } catch (IOException | NoSuchAlgorithmException | InvalidKeyException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,199 @@
+package dslab.client;
+
+import dslab.util.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the messages of a client over the transfer servers listed in {@code transfer.endpoints} (comma separated
+ * {@code host:port}), or uses the single {@code transfer.host}/{@code transfer.port} if no list is configured.
+ * <p>
+ * Every message goes to the less busy of two randomly chosen endpoints, measured by the messages currently being
+ * sent to them (power of two choices). An endpoint whose connection fails is ejected for
+ * {@code transfer.ejection.ms}, doubled by every further failure up to {@code transfer.ejection.max.ms}. Once the
+ * ejection is over the endpoint is probed, i.e. it has to greet a new connection with {@code ok DMTP}, before it
+ * gets messages again.
+ */
+public class TransferBalancer {
+
+    private final List<Endpoint> endpoints;
+    private final int connectTimeoutMs;
+    private final long ejectionMs;
+    private final long maxEjectionMs;
+
+    /**
+     * One transfer server
+     */
+    public class Endpoint {
+        private final InetSocketAddress address;
+        //messages being sent to this endpoint right now
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        //consecutive failures, guarded by the endpoint
+        private int failures = 0;
+        //0 while the endpoint is healthy, else the time in milliseconds until which it is ejected
+        private volatile long ejectedUntil = 0;
+
+        private Endpoint(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * Connects to the transfer server, the message counts as outstanding until {@link #release()} is called
+         *
+         * @return the connected socket
+         * @throws IOException if the connection failed, the endpoint is ejected then and nothing has to be released
+         */
+        public Socket connect() throws IOException {
+            Socket socket = new Socket();
+            outstanding.incrementAndGet();
+            try {
+                socket.connect(address, connectTimeoutMs);
+            } catch (IOException e) {
+                outstanding.decrementAndGet();
+                socket.close();
+                failed();
+                throw e;
+            }
+            return socket;
+        }
+
+        /**
+         * Is called once the message sent over a connection of {@link #connect()} is finished
+         */
+        public void release() {
+            outstanding.decrementAndGet();
+        }
+
+        /**
+         * Ejects the endpoint after its connection was lost while a message was sent
+         */
+        public synchronized void failed() {
+            failures++;
+            long ejection = ejectionMs << Math.min(failures - 1, 20);
+            ejectedUntil = System.currentTimeMillis() + Math.min(maxEjectionMs, ejection);
+        }
+
+        public int outstanding() {
+            return outstanding.get();
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil != 0;
+        }
+
+        private synchronized void healthy() {
+            failures = 0;
+            ejectedUntil = 0;
+        }
+
+        /**
+         * Probes an endpoint whose ejection is over, only one thread probes it at a time
+         */
+        private void probeIfDue(long now) {
+            long until = ejectedUntil;
+            if (until == 0 || until > now || !probing.compareAndSet(false, true)) {
+                return;
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(address, connectTimeoutMs);
+                socket.setSoTimeout(connectTimeoutMs);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String greeting = reader.readLine();
+                if (greeting == null || !greeting.startsWith("ok DMTP")) {
+                    throw new IOException("unexpected greeting " + greeting);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write("quit\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                healthy();
+            } catch (IOException e) {
+                failed();
+            } finally {
+                probing.set(false);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+    }
+
+    public TransferBalancer(Config config) {
+        this.connectTimeoutMs = config.getInt("transfer.connect.timeout.ms", 3000);
+        this.ejectionMs = Math.max(1, config.getInt("transfer.ejection.ms", 5000));
+        this.maxEjectionMs = Math.max(ejectionMs, config.getInt("transfer.ejection.max.ms", 60000));
+        List<Endpoint> endpoints = new ArrayList<>();
+        if (config.containsKey("transfer.endpoints")) {
+            for (String endpoint : config.getString("transfer.endpoints").split(",")) {
+                if (endpoint.isBlank()) {
+                    continue;
+                }
+                String[] hostAndPort = endpoint.trim().split(":");
+                endpoints.add(new Endpoint(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1]))));
+            }
+        } else {
+            endpoints.add(new Endpoint(
+                    new InetSocketAddress(config.getString("transfer.host"), config.getInt("transfer.port"))));
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("transfer.endpoints lists no transfer server");
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Chooses the endpoint for the next message, probing ejected endpoints whose ejection is over first
+     *
+     * @param excluded endpoints already tried for this message
+     * @return the endpoint or null if all endpoints that were not tried yet are ejected
+     */
+    public Endpoint choose(Collection<Endpoint> excluded) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (excluded.contains(endpoint)) {
+                continue;
+            }
+            endpoint.probeIfDue(now);
+            if (!endpoint.isEjected()) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        return b.outstanding() < a.outstanding() ? b : a;
+    }
+}
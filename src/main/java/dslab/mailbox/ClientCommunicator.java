@@ -5,6 +5,7 @@ import org.apache.commons.logging.LogFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.UncheckedIOException;
@@ -58,6 +59,15 @@ public class ClientCommunicator {
     }
   }
 
+  /**
+   * @return the raw input of the client, for reading bytes instead of lines; must not be mixed with
+   * {@link #readLine()}
+   * @throws IOException if the socket is closed
+   */
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
   public void println(String line) {
     writer.println(line);
   }
@@ -28,6 +28,7 @@ public class MailboxServer implements IMailboxServer, Runnable {
   private final String domain;
   private final int tcpDmapPort;
   private final int tcpDmtpPort;
+  private final boolean dmtpCompression;
   private final String users;
   private final String registryHost;
   private final String registryPort;
@@ -51,6 +52,8 @@ public class MailboxServer implements IMailboxServer, Runnable {
     users = config.getString("users.config");
     tcpDmapPort = config.getInt("dmap.tcp.port");
     tcpDmtpPort = config.getInt("dmtp.tcp.port");
+    dmtpCompression = config.containsKey("dmtp.compression")
+            && Boolean.parseBoolean(config.getString("dmtp.compression"));
     this.componentId = componentId;
     registryHost = config.getString("registry.host");
     registryPort = config.getString("registry.port");
@@ -112,7 +115,7 @@ public class MailboxServer implements IMailboxServer, Runnable {
       ServerSocket dmtpSocket = new ServerSocket(tcpDmtpPort);
       LOG.info(dmtpSocket.getLocalSocketAddress());
       register();
-      dmtpListenerThread = new DmtpListenerThread(dmtpSocket, domain, users);
+      dmtpListenerThread = new DmtpListenerThread(dmtpSocket, domain, users, dmtpCompression);
       dmtpListenerThread.start();
     } catch (IOException e) {
       LOG.error(e.getMessage());
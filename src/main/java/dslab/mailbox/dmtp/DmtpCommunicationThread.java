@@ -1,6 +1,7 @@
 package dslab.mailbox.dmtp;
 
 import dslab.mailbox.ClientCommunicator;
+import dslab.util.dmtp.DataCompression;
 
 import java.util.Objects;
 
@@ -17,18 +18,21 @@ public class DmtpCommunicationThread implements Runnable {
   private final ClientCommunicator communicator;
   private final String users;
   private final String domain;
+  private final boolean compression;
 
-  public DmtpCommunicationThread(ClientCommunicator communicator, String users, String domain) {
+  public DmtpCommunicationThread(ClientCommunicator communicator, String users, String domain, boolean compression) {
     this.communicator = communicator;
     this.users = users;
     this.domain = domain;
+    this.compression = compression;
   }
 
   public void run() {
 
     DmtpRequestHandler requestHandler = new DmtpRequestHandler(domain, users);
     String request;
-    communicator.println("ok DMTP2.0");
+    //transfer servers only send compressed bodies if the capability is announced in the greeting
+    communicator.println(compression ? "ok DMTP2.0 " + DataCompression.CAPABILITY : "ok DMTP2.0");
     communicator.flush();
     // read client requests
     while ((request = communicator.readLine()) != null && !Objects.equals(request, "quit")) {
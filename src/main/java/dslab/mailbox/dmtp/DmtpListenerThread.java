@@ -20,14 +20,16 @@ public class DmtpListenerThread extends Thread {
   private final ServerSocket serverSocket;
   private final String users;
   private final String domain;
+  private final boolean compression;
   private final Log LOG = LogFactory.getLog(DmtpListenerThread.class);
   private final ExecutorService executor = Executors.newCachedThreadPool();
   private boolean stopped = false;
 
-  public DmtpListenerThread(ServerSocket serverSocket, String domain, String userConfig) {
+  public DmtpListenerThread(ServerSocket serverSocket, String domain, String userConfig, boolean compression) {
     this.serverSocket = serverSocket;
     this.users = userConfig;
     this.domain = domain;
+    this.compression = compression;
     Thread.currentThread().setName("Listener Thread");
   }
 
@@ -37,7 +39,7 @@ public class DmtpListenerThread extends Thread {
       if (!communicator.establishConnection()) {
         break;
       }
-      executor.execute(new DmtpCommunicationThread(communicator, users, domain));
+      executor.execute(new DmtpCommunicationThread(communicator, users, domain, compression));
     }
     executor.shutdownNow();
   }
@@ -4,14 +4,15 @@ import dslab.mailbox.MailboxServer;
 import dslab.mailbox.MessageStorage;
 import dslab.util.Config;
 import dslab.util.datastructures.Email;
+import dslab.util.dmtp.DataCompression;
+import dslab.util.dmtp.DmtpParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * handles all DMTP requests, a request being one command sent from a Client,
@@ -21,8 +22,9 @@ public class DmtpRequestHandler {
 
   private final String domain;
   private final Config userConfig;
-  private final List<String> userList;
-  private Email receivedEmail = new Email();
+  private final Set<String> userList;
+  private final DmtpParser parser = new DmtpParser();
+  private Email.Builder receivedEmail = new Email.Builder();
   private boolean transferBegan = false;
   private List<String> recipients = new ArrayList<>();
   private static final Log LOG = LogFactory.getLog(DmtpRequestHandler.class);
@@ -30,7 +32,7 @@ public class DmtpRequestHandler {
   public DmtpRequestHandler(String domain, String userConfig) {
     this.domain = domain;
     this.userConfig = new Config(userConfig);
-    userList = new ArrayList<>(this.userConfig.listKeys());
+    userList = new HashSet<>(this.userConfig.listKeys());
   }
 
   /**
@@ -41,128 +43,138 @@ public class DmtpRequestHandler {
    */
   public String handleRequest(String request) {
     LOG.info("handling request: " + request);
-    switch (request.split(" ")[0]) {
-      case "begin":
-        return parseBegin(request);
-      case "to":
-        return parseTo(request);
-      case "from":
-        return parseFrom(request);
-      case "subject":
-        return parseSubject(request);
-      case "data":
-        return parseData(request);
-      case "hash":
-        return parseHash(request);
-      case "send":
+    switch (parser.parse(request)) {
+      case BEGIN:
+        return parseBegin();
+      case TO:
+        return parseTo();
+      case FROM:
+        return parseFrom();
+      case SUBJECT:
+        return parseSubject();
+      case DATA:
+        return parseData();
+      case DATA_DEFLATE:
+        return parseCompressedData();
+      case HASH:
+        return parseHash();
+      case SEND:
         return parseSend();
       default:
         return "error invalid Request";
     }
   }
 
-  private String parseHash(String request) {
+  private String parseHash() {
     if (!transferBegan) {
       return "error invalid request (1)";
     }
 
-    String[] args = request.split(" ");
-    if (args.length != 2) {
+    if (parser.argumentCount() != 1) {
       return "error invalid request (2)";
     }
-    String hash = args[1];
 
-    receivedEmail.setHash(hash);
+    receivedEmail.hash(parser.argument());
     return "ok";
   }
 
-  private String parseTo(String request) {
+  private String parseTo() {
     if (!transferBegan) {
       return "invalid request";
     }
 
-    //remove "to"
-    request = request.substring(3);
-    //filters out all emails with other domain than this Mailbox
-    var recipientList = Arrays.stream(request.split(","))
-            .map(String::trim)
-            .filter(s -> s.matches("(.*)@" + domain))
-            .collect(Collectors.toList());
-    if (recipientList.stream().findAny().isEmpty()) {
-      return "error unknown";
+    //only the recipients of this Mailbox's domain are stored
+    List<String> recipientList = new ArrayList<>();
+    while (parser.nextAddress()) {
+      if (!parser.hasDomain(domain)) {
+        continue;
+      }
+      String user = parser.localPart();
+      if (!userList.contains(user)) {
+        return "error unknown";
+      }
+      recipientList.add(user);
     }
-
-    if (recipientList.stream().anyMatch(s -> !userList.contains(s.split("@")[0]))) {
+    if (recipientList.isEmpty()) {
       return "error unknown";
     }
 
-    receivedEmail.setTo(request);
-
-    for (String recipient : recipientList) {
-      this.recipients.add(recipient.split("@")[0]);
-    }
+    receivedEmail.to(parser.rawArgument());
+    this.recipients.addAll(recipientList);
     return "ok " + recipientList.size();
   }
 
-  private String parseFrom(String request) {
+  private String parseFrom() {
     if (!transferBegan) {
       return "invalid request";
     }
-    var splitRequest = request.split(" ");
-    if (splitRequest.length > 2) {
+    if (parser.argumentCount() > 1) {
       return "error only one sender possible";
     }
-    var email = splitRequest[1];
-    if (!email.matches("(.*)@(.*)")) {
+    if (!parser.isSingleAddress()) {
       return "error invalid Email";
     }
-    receivedEmail.setFrom(email);
+    receivedEmail.from(parser.argument());
     return "ok";
 
   }
 
-  private String parseSubject(String request) {
+  private String parseSubject() {
     if (!transferBegan) {
       return "invalid request";
     }
-    receivedEmail.setSubject(request.substring(7).trim());
+    receivedEmail.subject(parser.argument());
     return "ok";
   }
 
-  private String parseData(String request) {
+  private String parseData() {
     if (!transferBegan) {
       return "invalid request";
     }
-    receivedEmail.setData(request.substring(4).trim());
+    receivedEmail.data(parser.argument());
     return "ok";
 
   }
 
+  //the body stays compressed until a DMAP show reads it
+  private String parseCompressedData() {
+    if (!transferBegan) {
+      return "invalid request";
+    }
+    try {
+      receivedEmail.compressedData(DataCompression.decode(parser.argument()));
+    } catch (IllegalArgumentException e) {
+      return "error invalid data";
+    }
+    return "ok";
+  }
+
   private String parseSend() {
     if (!transferBegan) {
       return "invalid request";
     }
-    if (!allEmailAttributesSet()) {
+    //send always ends the transaction, so a rejected message does not block the next one on this connection
+    this.transferBegan = false;
+    if (!receivedEmail.isComplete()) {
+      resetTransaction();
       return "error some attributes of email not set";
     }
-    this.transferBegan = false;
+    //all recipients share the same immutable message
+    Email email = receivedEmail.build();
     for (String recipient : recipients) {
-      MessageStorage.put(recipient, receivedEmail);
+      MessageStorage.put(recipient, email);
     }
-    this.receivedEmail = new Email();
-    this.recipients.clear();
+    resetTransaction();
     return "ok";
   }
 
-  private boolean allEmailAttributesSet() {
-    return receivedEmail.getFrom() != null &&
-            receivedEmail.getTo() != null &&
-            receivedEmail.getSubject() != null &&
-            receivedEmail.getData() != null;
+  private void resetTransaction() {
+    this.receivedEmail = new Email.Builder();
+    this.recipients.clear();
   }
 
-  private String parseBegin(String request) {
-    if (request.split(" ").length > 1) {
+  private String parseBegin() {
+    if (parser.argumentCount() > 0) {
       return "error invalid request";
     }
     if (transferBegan) {
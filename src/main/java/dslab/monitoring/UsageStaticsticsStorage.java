@@ -4,6 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -13,7 +14,7 @@ import java.util.stream.Collectors;
  */
 public class UsageStaticsticsStorage {
   //stores Usage statistics in form <host>:<port> <email-address>
-  private static final List<String> usageStatistics = new ArrayList<>();
+  private static final List<String> usageStatistics = Collections.synchronizedList(new ArrayList<>());
   private static final Log LOG = LogFactory.getLog(UsageStaticsticsStorage.class);
 
   public static boolean add(String usageStatistic) {
@@ -29,7 +30,7 @@ public class UsageStaticsticsStorage {
     LOG.info("addresses()");
     List<String> addresses = new ArrayList<>();
     HashMap<String, Integer> count = new HashMap<>();
-    for (String usageStatistic : usageStatistics) {
+    for (String usageStatistic : snapshot()) {
       String address = usageStatistic.split(" ")[1];
       int c = count.get(address) == null ? 0 : count.get(address);
       count.put(address, c + 1);
@@ -44,7 +45,7 @@ public class UsageStaticsticsStorage {
     LOG.info("servers()");
     List<String> servers = new ArrayList<>();
     HashMap<String, Integer> count = new HashMap<>();
-    for (String usageStatistic : usageStatistics) {
+    for (String usageStatistic : snapshot()) {
       String server = usageStatistic.split(" ")[0];
       int c = count.get(server) == null ? 0 : count.get(server);
       count.put(server, c + 1);
@@ -55,6 +56,13 @@ public class UsageStaticsticsStorage {
     return servers.stream().map(x -> x + " " + count.get(x)).collect(Collectors.toList());
   }
 
+  //the listener thread adds statistics while they are counted
+  private static List<String> snapshot() {
+    synchronized (usageStatistics) {
+      return new ArrayList<>(usageStatistics);
+    }
+  }
+
   public static void clear() {
     usageStatistics.clear();
   }
@@ -9,14 +9,17 @@ import java.io.UncheckedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * The Thread which handles the UDP Packages between this Monitoring Server and a
- * Client (Transfer Server).
+ * Client (Transfer Server). A Transfer Server packs several usage statistics into one packet, one per line.
  * <p>
  * This Threads Lifespan is as long as the Applications Lifespan
  */
 public class UdpListenerThread extends Thread {
+  //largest possible UDP payload
+  private static final int MAX_PACKET_SIZE = 65507;
   private final DatagramSocket datagramSocket;
   private final Log LOG = LogFactory.getLog(UdpListenerThread.class);
   private boolean stopped = false;
@@ -27,11 +30,11 @@ public class UdpListenerThread extends Thread {
 
   public void run() {
 
-    byte[] buffer;
+    //reused for every packet, it is decoded before the next one is received
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
     DatagramPacket packet;
     try {
       while (!stopped) {
-        buffer = new byte[1024];
         // create a datagram packet of specified length (buffer.length)
         /*
          * Keep in mind that, in UDP, packet delivery is not guaranteed,
@@ -42,12 +45,14 @@ public class UdpListenerThread extends Thread {
         // wait for incoming packets from client
         datagramSocket.receive(packet);
         // get the data from the packet
-        String request = new String(packet.getData()).trim();
+        String request = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
 
-        LOG.info("Received request-packet from client: " + request);
+        LOG.info("Received request-packet from client: " + request.trim());
 
-        if (!UsageStaticsticsStorage.add(request)) {
-          LOG.info("Nothing saved request is invalid format");
+        for (String usageStatistic : request.split("\n")) {
+          if (!usageStatistic.isBlank() && !UsageStaticsticsStorage.add(usageStatistic.trim())) {
+            LOG.info("Nothing saved request is invalid format");
+          }
         }
       }
 
@@ -0,0 +1,139 @@
+package dslab.shell;
+
+import at.ac.tuwien.dsg.orvell.Context;
+import at.ac.tuwien.dsg.orvell.Input;
+import at.ac.tuwien.dsg.orvell.Shell;
+import at.ac.tuwien.dsg.orvell.StopShellException;
+import at.ac.tuwien.dsg.orvell.annotation.Command;
+import dslab.transfer.TransferServer;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Shell for {@link TransferServer} it is used to block the main Thread
+ * and listens for Commands sent over the Command line
+ * Available Commands:
+ * 'shutdown'
+ * 'cache'
+ * 'admission'
+ * 'queue'
+ * 'metrics'
+ * 'circuits'
+ * 'dlq', 'dlq retry &lt;id|all&gt;', 'dlq purge'
+ */
+public class TransferShell implements IShell, Runnable {
+  private Shell shell;
+  private TransferServer server;
+
+  public TransferShell(TransferServer server, String componentId, InputStream inputStream, PrintStream outputStream) {
+    shell = new Shell(inputStream, outputStream);
+    shell.register(this);
+    //dlq has sub commands with a variable number of arguments, which the annotation based commands do not support
+    shell.register("dlq", this::dlq);
+    shell.setPrompt(componentId + "> ");
+    this.server = server;
+  }
+
+  @Override
+  @Command
+  public void shutdown() {
+    throw new StopShellException();
+  }
+
+  /**
+   * Prints the size and the hit/miss counters of the domain resolution cache.
+   * Example output:
+   * entries 2
+   * hits 40
+   * negative-hits 1
+   * misses 3
+   * evictions 0
+   */
+  @Command
+  public void cache() {
+    server.cache();
+  }
+
+  /**
+   * Prints the load counted by the admission control, its accept/reject counters and the rate limiter counters.
+   * Example output:
+   * state accepting
+   * messages 12
+   * bytes 3400
+   * accepted 1520
+   * rejected 37
+   * throttled 4
+   * rate-limited-senders 3
+   */
+  @Command
+  public void admission() {
+    server.admission();
+  }
+
+  /**
+   * Prints how many messages are queued, being delivered, waiting for a retry and dead.
+   * Example output:
+   * queued 0
+   * in-flight 2
+   * retrying 5
+   * dead-letters 1
+   */
+  @Command
+  public void queue() {
+    server.queue();
+  }
+
+  /**
+   * Prints the latency percentiles of every stage in microseconds, the queue-depth of all lanes and of every single
+   * lane and the in-flight gauge.
+   * Example output:
+   * accept count 12 p50 85us p99 410us p999 410us max 410us
+   * ...
+   * sendMail count 40 p50 1210us p99 5300us p999 5300us max 5300us
+   * queue-depth 3
+   * lane-system 0
+   * lane-interactive 1
+   * lane-bulk 2
+   * in-flight 2
+   */
+  @Command
+  public void metrics() {
+    server.metrics();
+  }
+
+  /**
+   * Prints the circuit breaker state of every mailbox server address.
+   * Example output:
+   * 127.0.0.1:11322 closed
+   * 127.0.0.1:11324 open
+   */
+  @Command
+  public void circuits() {
+    server.circuits();
+  }
+
+  /**
+   * 'dlq' lists the dead letters, 'dlq retry &lt;id&gt;' delivers one of them again ('dlq retry all' all of them),
+   * 'dlq purge' drops them.
+   */
+  private void dlq(Input input, Context context) {
+    List<String> arguments = input.getArguments();
+    if (arguments.isEmpty()) {
+      server.dlq();
+    } else if (arguments.get(0).equals("retry") && arguments.size() == 2) {
+      server.dlqRetry(arguments.get(1));
+    } else if (arguments.get(0).equals("purge") && arguments.size() == 1) {
+      server.dlqPurge();
+    } else {
+      context.out().println("usage: dlq | dlq retry <id|all> | dlq purge");
+    }
+  }
+
+  @Override
+  public void run() {
+    shell.run();
+    System.out.println("Exiting the shell, bye!");
+  }
+}
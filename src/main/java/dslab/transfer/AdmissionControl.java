@@ -0,0 +1,117 @@
+package dslab.transfer;
+
+import dslab.util.Config;
+import dslab.util.datastructures.Email;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether the Transfer Server accepts another message, based on the messages it holds but has not
+ * finished delivering yet (queued, being delivered or waiting for a retry).
+ * <p>
+ * Both the number of messages and their size in bytes have a high and a low watermark. Once either count reaches
+ * its high watermark the server is busy and rejects every new message, until both counts dropped to their low
+ * watermark again. The gap between the watermarks keeps the server from flapping between busy and accepting.
+ */
+public class AdmissionControl {
+
+  private static final Log LOG = LogFactory.getLog(AdmissionControl.class);
+  private final long highMessages;
+  private final long lowMessages;
+  private final long highBytes;
+  private final long lowBytes;
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private long messages = 0;
+  private long bytes = 0;
+  private boolean busy = false;
+
+  public AdmissionControl(Config transferConfig) {
+    this.highMessages = transferConfig.getInt("admission.high.messages", 1000);
+    this.lowMessages = Math.min(highMessages, transferConfig.getInt("admission.low.messages", 800));
+    this.highBytes = transferConfig.getInt("admission.high.bytes", 64 * 1024 * 1024);
+    this.lowBytes = Math.min(highBytes, transferConfig.getInt("admission.low.bytes", 48 * 1024 * 1024));
+  }
+
+  /**
+   * Accepts the message unless the server is busy
+   *
+   * @param email the message to accept
+   * @return false if the message was rejected
+   */
+  public synchronized boolean tryAdmit(Email email) {
+    if (busy) {
+      rejected.increment();
+      return false;
+    }
+    admit(email);
+    return true;
+  }
+
+  /**
+   * Accepts the message even if the server is busy, e.g. for messages recovered from the spool
+   *
+   * @param email the message to accept
+   */
+  public synchronized void admit(Email email) {
+    messages++;
+    bytes += sizeOf(email);
+    accepted.increment();
+    if (!busy && (messages >= highMessages || bytes >= highBytes)) {
+      busy = true;
+      LOG.info("High watermark reached (" + messages + " messages, " + bytes + " bytes), rejecting new messages");
+    }
+  }
+
+  /**
+   * Is called once the delivery of an accepted message finished
+   *
+   * @param email the message
+   */
+  public synchronized void release(Email email) {
+    messages--;
+    bytes -= sizeOf(email);
+    if (busy && messages <= lowMessages && bytes <= lowBytes) {
+      busy = false;
+      LOG.info("Low watermark reached (" + messages + " messages, " + bytes + " bytes), accepting messages again");
+    }
+  }
+
+  public synchronized boolean isBusy() {
+    return busy;
+  }
+
+  public synchronized long getMessages() {
+    return messages;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * @return the approximate size of the message in bytes, as it is sent over DMTP
+   */
+  static long sizeOf(Email email) {
+    return length(email.getFrom()) + length(email.getTo()) + length(email.getSubjectBytes())
+            + email.getDataLength() + length(email.getHashBytes());
+  }
+
+  private static long length(String value) {
+    return value == null ? 0 : value.length();
+  }
+
+  private static long length(byte[] value) {
+    return value == null ? 0 : value.length;
+  }
+}
@@ -0,0 +1,170 @@
+package dslab.transfer;
+
+import dslab.util.datastructures.Email;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Bounded store of the deliveries the Transfer Server gave up on, so they can be inspected and sent again from the
+ * shell once the cause (e.g. a mailbox server outage) is fixed.
+ * <p>
+ * Every dead letter is one message and one of its domains, together with the reason of the last failure, the
+ * number of attempts and when the delivery was first attempted and given up. If the store is full the oldest dead
+ * letter is dropped.
+ */
+public class DeadLetterQueue {
+
+  private static final Log LOG = LogFactory.getLog(DeadLetterQueue.class);
+  private final int capacity;
+  //called with the message of a dead letter that was dropped because the store was full
+  private final Consumer<Email> dropped;
+  private final Map<Long, DeadLetter> deadLetters = new LinkedHashMap<>();
+  private long nextId = 1;
+
+  /**
+   * A delivery that was given up
+   */
+  public static class DeadLetter {
+    private final long id;
+    private final Email email;
+    private final String domain;
+    private final String reason;
+    private final int attempts;
+    private final long firstAttempt;
+    private final long failedAt;
+
+    private DeadLetter(long id, Email email, String domain, String reason, int attempts, long firstAttempt,
+                       long failedAt) {
+      this.id = id;
+      this.email = email;
+      this.domain = domain;
+      this.reason = reason;
+      this.attempts = attempts;
+      this.firstAttempt = firstAttempt;
+      this.failedAt = failedAt;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public Email getEmail() {
+      return email;
+    }
+
+    public String getDomain() {
+      return domain;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    public int getAttempts() {
+      return attempts;
+    }
+
+    public long getFirstAttempt() {
+      return firstAttempt;
+    }
+
+    public long getFailedAt() {
+      return failedAt;
+    }
+  }
+
+  public DeadLetterQueue(int capacity) {
+    this(capacity, email -> {
+    });
+  }
+
+  /**
+   * @param dropped called with the message of every dead letter dropped because the store was full
+   */
+  public DeadLetterQueue(int capacity, Consumer<Email> dropped) {
+    this.capacity = Math.max(1, capacity);
+    this.dropped = dropped;
+  }
+
+  /**
+   * Stores a delivery that was given up, dropping the oldest dead letter if the store is full
+   *
+   * @param email        the message
+   * @param domain       the domain it could not be delivered to
+   * @param reason       the last failure
+   * @param attempts     number of attempts
+   * @param firstAttempt time of the first attempt in milliseconds since the epoch
+   * @return the dead letter
+   */
+  public DeadLetter add(Email email, String domain, String reason, int attempts, long firstAttempt) {
+    DeadLetter drop = null;
+    DeadLetter deadLetter;
+    synchronized (this) {
+      if (deadLetters.size() >= capacity) {
+        Iterator<DeadLetter> oldest = deadLetters.values().iterator();
+        drop = oldest.next();
+        LOG.error("Dead letter queue full, dropping dead letter " + drop.getId());
+        oldest.remove();
+      }
+      deadLetter = new DeadLetter(nextId++, email, domain, reason, attempts, firstAttempt,
+              System.currentTimeMillis());
+      deadLetters.put(deadLetter.getId(), deadLetter);
+    }
+    if (drop != null) {
+      dropped.accept(drop.getEmail());
+    }
+    return deadLetter;
+  }
+
+  /**
+   * @param email a message
+   * @return true if a dead letter of this message is stored
+   */
+  public synchronized boolean contains(Email email) {
+    for (DeadLetter deadLetter : deadLetters.values()) {
+      if (deadLetter.getEmail() == email) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes a dead letter, e.g. to deliver it again
+   *
+   * @param id id of the dead letter
+   * @return the dead letter or null if there is none with this id
+   */
+  public synchronized DeadLetter remove(long id) {
+    return deadLetters.remove(id);
+  }
+
+  /**
+   * Removes all dead letters
+   *
+   * @return the removed dead letters, oldest first
+   */
+  public synchronized List<DeadLetter> removeAll() {
+    List<DeadLetter> removed = new ArrayList<>(deadLetters.values());
+    deadLetters.clear();
+    return removed;
+  }
+
+  /**
+   * @return all dead letters, oldest first
+   */
+  public synchronized List<DeadLetter> list() {
+    return new ArrayList<>(deadLetters.values());
+  }
+
+  public synchronized int size() {
+    return deadLetters.size();
+  }
+}
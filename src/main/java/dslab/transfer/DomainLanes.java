@@ -0,0 +1,65 @@
+package dslab.transfer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs delivery tasks in one lane per destination domain.
+ * <p>
+ * Tasks of the same domain are executed one after another in the order they were submitted, tasks of
+ * different domains run concurrently on a shared pool of {@code delivery.lane.threads} threads. A slow
+ * mailbox server therefore only delays the messages of its own domain.
+ * <p>
+ * A lane only exists while it has work: the map holds the future of the last task submitted for each
+ * domain, which is removed again once it completed without a successor.
+ */
+public class DomainLanes {
+
+  private static final CompletableFuture<Void> IDLE = CompletableFuture.completedFuture(null);
+  private final ConcurrentHashMap<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+  private final ExecutorService executor;
+
+  public DomainLanes(int threads) {
+    AtomicInteger threadIndex = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+            r -> new Thread(r, "deliveryLane-" + threadIndex.incrementAndGet()));
+  }
+
+  /**
+   * Appends a task to the lane of the given domain
+   *
+   * @param domain destination domain of the task
+   * @param task   the task, it runs after all tasks previously submitted for the domain
+   * @return future completed when the task finished
+   */
+  public CompletableFuture<Void> submit(String domain, Runnable task) {
+    CompletableFuture<Void> future = tails.compute(domain, (d, tail) ->
+            //a failed predecessor must not stop the rest of the lane
+            (tail == null ? IDLE : tail).handle((result, error) -> null).thenRunAsync(task, executor));
+    future.whenComplete((result, error) -> tails.remove(domain, future));
+    return future;
+  }
+
+  /**
+   * @return the number of domains with pending or running tasks
+   */
+  public int activeLanes() {
+    return tails.size();
+  }
+
+  /**
+   * Stops the lane threads, pending tasks are not executed anymore
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,197 +1,737 @@
 package dslab.transfer;
 
-import dslab.nameserver.INameserverRemote;
+import dslab.transfer.connection.CircuitBreaker;
+import dslab.transfer.connection.MailboxConnection;
+import dslab.transfer.connection.MailboxConnectionPool;
+import dslab.transfer.connection.TransactionResult;
+import dslab.transfer.lookup.DomainResolver;
+import dslab.transfer.lookup.LookupException;
+import dslab.transfer.metrics.StatisticsReporter;
+import dslab.transfer.metrics.TransferMetrics;
+import dslab.transfer.metrics.TransferMetrics.Stage;
+import dslab.transfer.spool.BodySpill;
+import dslab.transfer.spool.SpoolJournal;
 import dslab.util.Config;
-import dslab.util.datastructures.DataQueue;
 import dslab.util.datastructures.Email;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.rmi.NotBoundException;
-import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This Class implements the Producer-Consumer Class receiving Messages from the {@link dslab.transfer.dmtp.DmtpRequestHandler}
  * and passing them forward to the appropriate Mailbox Server and Monitoring Server.
  * <p>
- * The Producer Class {@link dslab.transfer.dmtp.DmtpRequestHandler} calls the distribute() function after finishing
- * producing, while the Sender thread in {@link dslab.transfer.dmtp.DmtpCommunicationThread} calls the forward() function
- * which then puts the Sender thread in a loop, connecting to the mailbox Servers and Monitoring Server and sending
- * the Message.
- * distribute() puts the message in the {@link DataQueue} queue while it is not full, forward() extracts messages out of the
- * queue while it is not empty. If the Queue is full/empty respectively the Thread blocks and waits for the queue to
- * be the desired state (not full, not empty)
+ * There is exactly one MessageDistributer per {@link TransferServer}. All Producers ({@link dslab.transfer.dmtp.DmtpRequestHandler}
+ * of every connected client) call the distribute() function after finishing producing, while a fixed pool of
+ * delivery workers (configured by {@code delivery.workers}) runs the forward() loop, connecting to the mailbox Servers
+ * and Monitoring Server and sending the Message.
+ * distribute() puts the message in its lane of the {@link PriorityLanes} while it is not full, forward() extracts
+ * messages out of the lanes by weighted round robin while they are not empty. If the lane is full/all lanes are empty
+ * respectively the Thread waits for the desired state (not full, not empty). Failure mails to senders have a lane
+ * of their own, so they are not stuck behind bulk messages.
+ * </p>
+ * <p>
+ * Every message is appended to the {@link SpoolJournal} before it is queued and checkpointed once its delivery
+ * finished, messages which were accepted but not delivered before a restart are queued again by start().
+ * </p>
+ * <p>
+ * Deliveries that fail transiently are handed to the {@link RetryScheduler} and attempted again later in the lane of
+ * their domain. The sender only gets a failure mail once the mailbox server rejected the message, the domain is
+ * unknown or the retries are exhausted. Such deliveries are kept in the {@link DeadLetterQueue} and can be sent again
+ * from the shell.
+ * </p>
+ * <p>
+ * A {@link CircuitBreaker} per mailbox address stops delivery attempts to a server that keeps failing: while its
+ * circuit is open, deliveries to it go to the retry path at once instead of waiting for a connect timeout.
+ * </p>
+ * <p>
+ * On shutdown the server first drains: {@link #drain(long)} waits until the queued messages and the running
+ * deliveries are finished, only deliveries waiting for a retry are left in the spool.
+ * </p>
+ * <p>
+ * The latencies of distribute, the domain lookup, borrowing a connection and sendMail are recorded in the
+ * {@link TransferMetrics} of the server. The usage statistics of every delivery are handed to the
+ * {@link StatisticsReporter}, which sends them to the Monitoring Server in the background.
  * </p>
  */
 public class MessageDistributer {
-  private final DataQueue queue = new DataQueue(10);
-  private final Config domainConfig = new Config("domains");
+  private static final int DEFAULT_WORKERS = 4;
+  private static final int DEFAULT_QUEUE_SIZE = 1024;
+  private static final int DEFAULT_BATCH_SIZE = 10;
+  private static final int DEFAULT_LANE_THREADS = 8;
+  private static final int DEFAULT_DLQ_SIZE = 1000;
+  private static final String FAILURE_SUBJECT = "Failed to send Email";
+  //upper bound for a single wait, so waiting threads notice a shutdown in time
+  private static final long WAIT_TIMEOUT_MS = 100;
+  private final PriorityLanes queue;
   private final Log LOG = LogFactory.getLog(MessageDistributer.class);
-  private Socket mailboxSocket;
-  private PrintWriter mailboxOut;
-  private BufferedReader mailboxIn;
-  private Config transferConfig;
-  private String registryHost;
-  private String registryPort;
-  private String rootId;
-
-  public void setTransferConfig(Config transferConfig) {
+  private final Config transferConfig;
+  private final int workerCount;
+  private final int batchSize;
+  private final long responseTimeoutMs;
+  private final MailboxConnectionPool connectionPool;
+  private final CircuitBreaker circuitBreaker;
+  private final DomainResolver domainResolver;
+  private final DomainLanes domainLanes;
+  private final SpoolJournal spool;
+  private final BodySpill bodySpill;
+  //messages accepted but not delivered before the last shutdown, queued by start()
+  private final List<Email> recovered;
+  private final RetryScheduler retryScheduler;
+  private final AdmissionControl admissionControl;
+  private final SenderRateLimiter rateLimiter;
+  private final DeadLetterQueue deadLetters;
+  private final TransferMetrics metrics = new TransferMetrics();
+  private final StatisticsReporter statistics;
+  //successful deliveries of a message to one of its domains
+  private final LongAdder deliveries = new LongAdder();
+  //number of domains each message still has to be delivered to, the message is checkpointed when it reaches 0
+  private final Map<Email, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+  private ExecutorService workers;
+  private volatile boolean stopped = false;
+
+  public MessageDistributer(Config transferConfig) {
     this.transferConfig = transferConfig;
-    this.registryHost = transferConfig.getString("registry.host");
-    this.registryPort = transferConfig.getString("registry.port");
-    this.rootId = transferConfig.getString("root_id");
+    this.workerCount = Math.max(1, transferConfig.getInt("delivery.workers", DEFAULT_WORKERS));
+    this.batchSize = Math.max(1, transferConfig.getInt("delivery.batch.size", DEFAULT_BATCH_SIZE));
+    this.responseTimeoutMs = transferConfig.getInt("pool.response.timeout.ms", 5000);
+    int queueSize = Math.max(1, transferConfig.getInt("delivery.queue.size", DEFAULT_QUEUE_SIZE));
+    this.queue = new PriorityLanes(transferConfig, queueSize, workerCount == 1);
+    this.connectionPool = new MailboxConnectionPool(transferConfig);
+    this.circuitBreaker = new CircuitBreaker(transferConfig);
+    this.domainResolver = new DomainResolver(transferConfig);
+    this.domainLanes = new DomainLanes(transferConfig.getInt("delivery.lane.threads", DEFAULT_LANE_THREADS));
+    try {
+      this.spool = new SpoolJournal(transferConfig);
+      this.recovered = spool.recover();
+      this.bodySpill = new BodySpill(transferConfig);
+      int orphans = bodySpill.deleteUnreferenced(recovered);
+      if (orphans > 0) {
+        LOG.info("deleted " + orphans + " spilled message bodies of messages that were never accepted");
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open the spool", e);
+    }
+    this.retryScheduler = new RetryScheduler(transferConfig, this::retry);
+    this.admissionControl = new AdmissionControl(transferConfig);
+    this.rateLimiter = new SenderRateLimiter(transferConfig);
+    this.deadLetters = new DeadLetterQueue(transferConfig.getInt("dlq.size", DEFAULT_DLQ_SIZE), this::releaseBody);
+    this.statistics = new StatisticsReporter(transferConfig);
+  }
+
+  /**
+   * Starts the delivery workers, each of them executing the forward() loop, and queues the messages recovered
+   * from the spool. Returns once all recovered messages are queued.
+   */
+  public void start() {
+    AtomicInteger workerIndex = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(workerCount,
+            r -> new Thread(r, "deliveryWorker-" + workerIndex.incrementAndGet()));
+    for (int i = 0; i < workerCount; i++) {
+      workers.execute(this::forward);
+    }
+    retryScheduler.start();
+    statistics.start();
+    try {
+      for (Email email : recovered) {
+        admissionControl.admit(email);
+        queue.put(queue.classify(email), email);
+      }
+      recovered.clear();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public DomainResolver getDomainResolver() {
+    return domainResolver;
+  }
+
+  public AdmissionControl getAdmissionControl() {
+    return admissionControl;
+  }
+
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  public SenderRateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  public DeadLetterQueue getDeadLetters() {
+    return deadLetters;
+  }
+
+  public TransferMetrics getMetrics() {
+    return metrics;
+  }
+
+  public StatisticsReporter getStatistics() {
+    return statistics;
+  }
+
+  public BodySpill getBodySpill() {
+    return bodySpill;
+  }
+
+  /**
+   * @return the number of accepted messages waiting for a delivery worker
+   */
+  public int queuedMessages() {
+    return queue.size();
+  }
+
+  /**
+   * @param lane one of the lanes of the delivery queue
+   * @return the number of messages waiting in this lane
+   */
+  public int queuedMessages(PriorityLanes.Lane lane) {
+    return queue.size(lane);
+  }
+
+  /**
+   * @return the number of messages taken by a worker whose delivery did not finish yet
+   */
+  public int inFlightMessages() {
+    return inFlight.size();
+  }
+
+  /**
+   * @return the number of deliveries waiting for their next attempt
+   */
+  public int pendingRetries() {
+    return retryScheduler.pending();
+  }
+
+  /**
+   * @return the number of successful deliveries of a message to one of its domains since the start
+   */
+  public long deliveries() {
+    return deliveries.sum();
+  }
+
+  /**
+   * Waits until every queued message was taken by a worker and no delivery is running anymore. Deliveries waiting
+   * for a retry are not waited for, they stay in the spool and are attempted again after the next start.
+   * New messages are still accepted while draining, the front end has to stop accepting them first.
+   *
+   * @param timeoutMs maximum time to wait in milliseconds
+   * @return true if the distributer is drained, false if the timeout elapsed first
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   */
+  public boolean drain(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (queue.size() > 0 || runningDeliveries() > 0) {
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  //deliveries of the messages in flight which are not waiting for a retry
+  private long runningDeliveries() {
+    long outstanding = 0;
+    for (AtomicInteger remaining : inFlight.values()) {
+      outstanding += remaining.get();
+    }
+    return outstanding - retryScheduler.pending();
+  }
+
+  /**
+   * Stops all delivery workers and closes the pooled mailbox connections.
+   * Messages still in the queue or waiting for a retry are not delivered anymore, they stay in the spool.
+   */
+  public void shutdown() {
+    stopped = true;
+    retryScheduler.shutdown();
+    if (workers != null) {
+      workers.shutdownNow();
+      try {
+        if (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+          LOG.error("Delivery workers did not terminate in time");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    domainLanes.shutdown();
+    connectionPool.close();
+    statistics.close();
+    spool.close();
   }
 
   /**
    * Is called by the Producer Class {@link dslab.transfer.dmtp.DmtpRequestHandler} with a freshly produced message.
+   * The message is rejected right away if the {@link AdmissionControl} reports the server as busy.
+   * Otherwise it is appended to the spool first, so it survives a restart once this method returned.
    * If the Queue is not full the message is saved to the Queue and the producer Thread can return to producing Messages.
-   * If the Queue is full the producer Thread is blocked until the Queue is not full any more (see forward method)
+   * If the Queue is full the producer Thread is blocked until the Queue is not full any more (see forward method),
+   * which only happens if {@code delivery.queue.size} is below the high watermark.
    *
    * @param email message to send
+   * @return false if the message was rejected because the server is busy
    * @throws InterruptedException if the Thread gets interrupted during wait
+   * @throws IOException          if the message could not be written to the spool
    */
-  public void distribute(Email email) throws InterruptedException {
-    while (queue.isFull()) {
-      try {
-        queue.waitOnFull();
-      } catch (InterruptedException e) {
-        break;
+  public boolean distribute(Email email) throws InterruptedException, IOException {
+    long start = System.nanoTime();
+    try {
+      return spoolAndQueue(email);
+    } finally {
+      metrics.record(Stage.DISTRIBUTE, start);
+    }
+  }
+
+  private boolean spoolAndQueue(Email email) throws InterruptedException, IOException {
+    if (!admissionControl.tryAdmit(email)) {
+      return false;
+    }
+    try {
+      spool.append(email);
+    } catch (IOException e) {
+      admissionControl.release(email);
+      throw e;
+    }
+    PriorityLanes.Lane lane = queue.classify(email);
+    while (!queue.offer(lane, email, WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      if (stopped) {
+        return true;
       }
     }
-    queue.add(email);
-    queue.notifyAllForEmpty();
+    return true;
   }
 
   /**
-   * Is called by the Sender Thread in {@link dslab.transfer.dmtp.DmtpCommunicationThread}
-   * It loops endlessly(until thread is terminated) to process the Queue {@link DataQueue}
+   * Accepts a batch of messages in one operation: the admission is decided per message, the accepted messages are
+   * appended to the spool with a single force and queued as one block.
+   *
+   * @param emails messages to send
+   * @return per message whether it was accepted, false if it was rejected because the server is busy
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   * @throws IOException          if the messages could not be written to the spool, none of them is accepted then
+   */
+  public boolean[] distributeAll(List<Email> emails) throws InterruptedException, IOException {
+    long start = System.nanoTime();
+    try {
+      return spoolAndQueueAll(emails);
+    } finally {
+      metrics.record(Stage.DISTRIBUTE, start);
+    }
+  }
+
+  private boolean[] spoolAndQueueAll(List<Email> emails) throws InterruptedException, IOException {
+    boolean[] accepted = new boolean[emails.size()];
+    List<Email> admitted = new ArrayList<>(emails.size());
+    for (int i = 0; i < emails.size(); i++) {
+      accepted[i] = admissionControl.tryAdmit(emails.get(i));
+      if (accepted[i]) {
+        admitted.add(emails.get(i));
+      }
+    }
+    try {
+      spool.appendAll(admitted);
+    } catch (IOException e) {
+      admitted.forEach(admissionControl::release);
+      throw e;
+    }
+    Map<PriorityLanes.Lane, List<Email>> byLane = new EnumMap<>(PriorityLanes.Lane.class);
+    for (Email email : admitted) {
+      byLane.computeIfAbsent(queue.classify(email), l -> new ArrayList<>()).add(email);
+    }
+    for (Map.Entry<PriorityLanes.Lane, List<Email>> entry : byLane.entrySet()) {
+      List<Email> laneEmails = entry.getValue();
+      int capacity = queue.capacity(entry.getKey());
+      //a block larger than the lane is split into blocks the lane can hold
+      for (int start = 0; start < laneEmails.size(); start += capacity) {
+        List<Email> block = laneEmails.subList(start, Math.min(laneEmails.size(), start + capacity));
+        while (!queue.offerAll(entry.getKey(), block, WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          if (stopped) {
+            return accepted;
+          }
+        }
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * Is executed by every delivery worker.
+   * It loops endlessly(until the distributer is shut down) to process the Queue
    * If the Queue is empty the Thread waits for new Messages to be produced (see distribute method)
-   * If the Queue is not empty it establishes Connections to the required Servers and sends the Message
-   * to the appropriate recipients
+   * If the Queue is not empty it takes up to {@code delivery.batch.size} messages, establishes Connections to
+   * the required Servers and sends the Messages to the appropriate recipients. Every domain is delivered in its
+   * own lane (see {@link DomainLanes}), all transactions for one domain are pipelined over a single connection
+   * borrowed from the shared {@link MailboxConnectionPool}. Failure mails taken from the system lane are sent
+   * before the batch.
    */
   public void forward() {
-    while (true) {
-      if (queue.isEmpty()) {
-        try {
-          queue.waitOnEmpty();
-        } catch (InterruptedException e) {
-          break;
-        }
+    while (!stopped) {
+      Email first;
+      try {
+        first = queue.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (first == null) {
+        continue;
       }
-      Email toSend = queue.poll();
-      queue.notifyAllForFull();
-      for (String domain : toSend.getDomains()) {
-        if (!establishClientConnection(domain)) {
-          sendFailureMail(toSend.getFrom());
+      List<Email> batch = new ArrayList<>();
+      Email next = first;
+      do {
+        if (isFailureMail(next)) {
+          deliverFailureMail(next.getTo());
         } else {
-          sendStatistics(toSend);
-          sendMail(toSend);
+          batch.add(next);
         }
+      } while (batch.size() < batchSize && (next = queue.poll()) != null);
+      if (!batch.isEmpty()) {
+        deliver(batch);
       }
     }
   }
 
-  private boolean establishClientConnection(String domain) {
-    String address = getAddressOfDomain(domain);
-    if(address == null) return false;
-    int port = Integer.parseInt(address.split(":")[1]);
-    String host = address.split(":")[0];
-    try {
-      if (mailboxSocket != null &&
-              mailboxSocket.isConnected() &&
-              mailboxSocket.getPort() == port) {
-        return true;
+  /**
+   * Delivers a batch of messages. The transactions are grouped by destination domain and every group is
+   * handed to the lane of its domain, so all domains are served concurrently while the order within a
+   * domain is kept. Returns once every lane finished its first attempt of the batch.
+   *
+   * @param batch messages to deliver
+   */
+  private void deliver(List<Email> batch) {
+    Map<String, List<Email>> byDomain = new LinkedHashMap<>();
+    long now = System.currentTimeMillis();
+    for (Email email : batch) {
+      inFlight.put(email, new AtomicInteger(email.getDomains().size()));
+      for (String domain : email.getDomains()) {
+        byDomain.computeIfAbsent(domain, d -> new ArrayList<>()).add(email);
       }
-    } catch (MissingResourceException e) {
-      return false;
+    }
+    List<CompletableFuture<Void>> lanes = new ArrayList<>(byDomain.size());
+    for (Map.Entry<String, List<Email>> entry : byDomain.entrySet()) {
+      lanes.add(domainLanes.submit(entry.getKey(), () -> deliverToDomain(entry.getKey(), entry.getValue(), 0, now)));
     }
     try {
-      LOG.info("establishConnection: " + domain);
-      if (mailboxOut != null) {
-        mailboxOut.close();
+      CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[0])).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.error("Delivery failed: " + e.getCause());
+    }
+  }
+
+  /**
+   * Attempts to deliver messages to the mailbox server of one domain
+   *
+   * @param domain       destination domain
+   * @param emails       messages to deliver
+   * @param attempts     number of earlier attempts of these messages
+   * @param firstAttempt time of the first attempt in milliseconds since the epoch
+   */
+  private void deliverToDomain(String domain, List<Email> emails, int attempts, long firstAttempt) {
+    String address;
+    try {
+      address = resolve(domain);
+    } catch (LookupException e) {
+      //the nameservers are not reachable, only a negative answer bounces the messages
+      for (Email email : emails) {
+        retryOrBounce(email, domain, e.getMessage(), attempts + 1, firstAttempt);
+      }
+      return;
+    }
+    if (address == null) {
+      LOG.error("Delivery to " + domain + " failed: unknown domain");
+      for (Email email : emails) {
+        bounce(email, domain, "unknown domain", attempts + 1, firstAttempt);
       }
-      if (mailboxIn != null) {
-        mailboxIn.close();
+      return;
+    }
+    if (!circuitBreaker.allow(address)) {
+      for (Email email : emails) {
+        retryOrBounce(email, domain, "circuit open for " + address, attempts + 1, firstAttempt);
       }
-      mailboxSocket = new Socket(host, port);
-      mailboxOut = new PrintWriter(mailboxSocket.getOutputStream());
-      mailboxIn = new BufferedReader(new InputStreamReader(mailboxSocket.getInputStream()));
+      return;
+    }
+    MailboxConnection connection;
+    try {
+      connection = borrow(address);
     } catch (IOException e) {
-      e.printStackTrace();
+      circuitBreaker.onFailure(address);
+      LOG.error("Could not connect to " + domain + " (" + address + "): " + e.getMessage());
+      //the mailbox server might have been registered again under a different address
+      domainResolver.invalidate(domain);
+      for (Email email : emails) {
+        retryOrBounce(email, domain, "could not connect: " + e.getMessage(), attempts + 1, firstAttempt);
+      }
+      return;
+    }
+    List<TransactionResult> results = sendMail(emails, domain, connection);
+    connectionPool.release(connection);
+    if (results.stream().anyMatch(TransactionResult::isTransient)) {
+      circuitBreaker.onFailure(address);
+    } else {
+      circuitBreaker.onSuccess(address);
+    }
+    for (int i = 0; i < emails.size(); i++) {
+      Email email = emails.get(i);
+      TransactionResult result = results.get(i);
+      if (result.isSuccess()) {
+        deliveries.increment();
+        sendStatistics(email, connection);
+        finished(email);
+      } else if (result.isTransient()) {
+        LOG.error("Delivery to " + domain + " failed: " + result.getFailure());
+        retryOrBounce(email, domain, result.getFailure(), attempts + 1, firstAttempt);
+      } else {
+        LOG.error("Delivery to " + domain + " rejected: " + result.getFailure());
+        sendStatistics(email, connection);
+        bounce(email, domain, result.getFailure(), attempts + 1, firstAttempt);
+      }
+    }
+  }
+
+  /**
+   * Is called by the {@link RetryScheduler} once a retry is due, it is attempted in the lane of its domain
+   */
+  private void retry(RetryScheduler.Retry retry) {
+    domainLanes.submit(retry.getDomain(), () -> deliverToDomain(retry.getDomain(), List.of(retry.getEmail()),
+            retry.getAttempts(), retry.getFirstAttempt()));
+  }
+
+  private void retryOrBounce(Email email, String domain, String reason, int attempts, long firstAttempt) {
+    if (!retryScheduler.schedule(email, domain, attempts, firstAttempt)) {
+      LOG.error("Giving up delivery to " + domain + " after " + attempts + " attempt(s)");
+      bounce(email, domain, reason, attempts, firstAttempt);
+    }
+  }
+
+  /**
+   * Gives up the delivery of a message to one domain: it is kept in the {@link DeadLetterQueue} and the sender
+   * gets a failure mail
+   */
+  private void bounce(Email email, String domain, String reason, int attempts, long firstAttempt) {
+    deadLetters.add(email, domain, reason, attempts, firstAttempt);
+    sendFailureMail(email.getFrom());
+    finished(email);
+  }
+
+  /**
+   * Records that the delivery of a message to one of its domains is finished, successful or not.
+   * Once all domains are finished the message is checkpointed in the spool.
+   */
+  private void finished(Email email) {
+    AtomicInteger remaining = inFlight.computeIfPresent(email, (e, r) -> r.decrementAndGet() <= 0 ? null : r);
+    if (remaining == null) {
+      spool.markDelivered(email);
+      admissionControl.release(email);
+      releaseBody(email);
+    }
+  }
+
+  /**
+   * Deletes the spilled body of a message once neither a delivery nor a dead letter needs it anymore
+   */
+  private void releaseBody(Email email) {
+    if (email.getDataFile() != null && !inFlight.containsKey(email) && !deadLetters.contains(email)) {
+      bodySpill.delete(email.getDataFile());
+    }
+  }
+
+  /**
+   * Delivers a dead letter again, as if it was a new message for its domain only
+   *
+   * @param id id of the dead letter
+   * @return false if there is no dead letter with this id
+   */
+  public boolean retryDeadLetter(long id) {
+    DeadLetterQueue.DeadLetter deadLetter = deadLetters.remove(id);
+    if (deadLetter == null) {
       return false;
     }
+    redeliver(deadLetter);
     return true;
   }
 
-  private String getAddressOfDomain(String domain) {
-    var split = domain.split("\\.");
-    String mailboxDomain = split[0];
-    List<String> zones = Arrays.stream(split).collect(Collectors.toList()).subList(1,split.length);
+  /**
+   * Delivers all dead letters again
+   *
+   * @return the number of dead letters
+   */
+  public int retryDeadLetters() {
+    List<DeadLetterQueue.DeadLetter> all = deadLetters.removeAll();
+    all.forEach(this::redeliver);
+    return all.size();
+  }
+
+  /**
+   * Drops all dead letters and deletes the spilled bodies no other delivery needs anymore
+   *
+   * @return the number of dead letters
+   */
+  public int purgeDeadLetters() {
+    List<DeadLetterQueue.DeadLetter> all = deadLetters.removeAll();
+    all.forEach(deadLetter -> releaseBody(deadLetter.getEmail()));
+    return all.size();
+  }
+
+  private void redeliver(DeadLetterQueue.DeadLetter deadLetter) {
+    Email email = deadLetter.getEmail();
+    boolean[] finishedBefore = {false};
+    inFlight.compute(email, (e, remaining) -> {
+      if (remaining == null) {
+        finishedBefore[0] = true;
+        return new AtomicInteger(1);
+      }
+      remaining.incrementAndGet();
+      return remaining;
+    });
+    if (finishedBefore[0]) {
+      //the message was checkpointed already, it is accepted again for the domain of the dead letter only
+      admissionControl.admit(email);
+      try {
+        spool.append(email, deadLetter.getDomain());
+      } catch (IOException e) {
+        LOG.error("Could not spool dead letter " + deadLetter.getId() + ": " + e.getMessage());
+      }
+    }
+    String domain = deadLetter.getDomain();
+    domainLanes.submit(domain, () -> deliverToDomain(domain, List.of(email), 0, System.currentTimeMillis()));
+  }
+
+  /**
+   * Borrows a connection to the mailbox server of the given domain from the {@link MailboxConnectionPool}
+   *
+   * @param domain domain whose mailbox server should be connected
+   * @return the borrowed connection or null if the domain is unknown or cannot be resolved, its circuit is open or
+   * it is not reachable
+   */
+  private MailboxConnection establishClientConnection(String domain) {
+    String address;
+    try {
+      address = resolve(domain);
+    } catch (LookupException e) {
+      return null;
+    }
+    if (address == null || !circuitBreaker.allow(address)) return null;
     try {
-      Registry registry = LocateRegistry.getRegistry(registryHost, Integer.parseInt(registryPort));
-      INameserverRemote remote = (INameserverRemote) registry.lookup(rootId);
-      for(int i = zones.size()-1; i >= 0; i--) {
-        if(remote == null) return null;
-        remote = remote.getNameserver(zones.get(i));
-      }
-      return remote == null ? null : remote.lookup(mailboxDomain);
-    } catch (RemoteException | NotBoundException e) {
-      e.printStackTrace();
+      return borrow(address);
+    } catch (IOException e) {
+      circuitBreaker.onFailure(address);
+      LOG.error("Could not connect to " + domain + " (" + address + "): " + e.getMessage());
+      domainResolver.invalidate(domain);
       return null;
     }
   }
 
-  private void sendMail(Email email) {
-    mailboxOut.println("begin");
-    mailboxOut.println("to " + email.getTo());
-    mailboxOut.println("from " + email.getFrom());
-    mailboxOut.println("subject " + email.getSubject());
-    mailboxOut.println("data " + email.getData());
-    mailboxOut.println("hash " + email.getHash());
-    mailboxOut.println("send");
-    mailboxOut.flush();
-    LOG.info("Finished sending email");
+  private String resolve(String domain) throws LookupException {
+    long start = System.nanoTime();
+    try {
+      return domainResolver.resolve(domain);
+    } finally {
+      metrics.record(Stage.RESOLVE, start);
+    }
   }
 
-  private void sendStatistics(Email toSend) {
-    LOG.info("sendStatistics: " + toSend.toString());
-
-    DatagramSocket socket = null;
-    byte[] message = (mailboxSocket.getInetAddress().getHostAddress() + ":"
-            + transferConfig.getString("tcp.port") + " " + toSend.getFrom() + "\n").getBytes();
+  private MailboxConnection borrow(String address) throws IOException {
+    long start = System.nanoTime();
     try {
-      socket = new DatagramSocket();
-      DatagramPacket packet = new DatagramPacket(message, message.length
-              , InetAddress.getByName(transferConfig.getString("monitoring.host"))
-              , transferConfig.getInt("monitoring.port"));
-      socket.send(packet);
-    } catch (IOException e) {
-      LOG.error(e);
+      return connectionPool.borrow(address);
     } finally {
-      if (socket != null && !socket.isClosed()) {
-        socket.close();
+      metrics.record(Stage.CONNECT, start);
+    }
+  }
+
+  /**
+   * Sends the emails as pipelined DMTP transactions and waits for the responses of the mailbox server
+   *
+   * @param emails     emails to send
+   * @param domain     domain whose recipients are sent, null for all recipients
+   * @param connection connection to the mailbox server
+   * @return one result per email, in the same order
+   */
+  private List<TransactionResult> sendMail(List<Email> emails, String domain, MailboxConnection connection) {
+    long start = System.nanoTime();
+    List<CompletableFuture<TransactionResult>> futures = connection.send(emails, domain);
+    List<TransactionResult> results = new ArrayList<>(futures.size());
+    long deadline = System.currentTimeMillis() + responseTimeoutMs;
+    for (CompletableFuture<TransactionResult> future : futures) {
+      TransactionResult result;
+      try {
+        result = future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        result = TransactionResult.failed("no response from " + connection.getAddress());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        result = TransactionResult.failed("interrupted");
+      } catch (ExecutionException e) {
+        result = TransactionResult.failed(e.getMessage());
       }
+      results.add(result);
     }
+    metrics.record(Stage.SEND, start);
+    LOG.info("Finished sending " + emails.size() + " email(s) to " + connection.getAddress());
+    return results;
+  }
 
+  private void sendStatistics(Email toSend, MailboxConnection connection) {
+    if (!statistics.report(connection.getHostAddress() + ":" + transferConfig.getString("tcp.port"),
+            toSend.getFrom())) {
+      LOG.debug("Dropped statistics of " + toSend);
+    }
   }
 
+  /**
+   * Queues a failure mail to the sender in the system lane. Like a bounce in SMTP it has no sender while queued,
+   * the sender {@code mailer@[<address of the mailbox server>]} is only known once it is sent.
+   */
   private void sendFailureMail(String from) {
+    Email failureMail = new Email(null, from, FAILURE_SUBJECT, FAILURE_SUBJECT);
+    if (!queue.offer(PriorityLanes.Lane.SYSTEM, failureMail)) {
+      //the system lane is full, the caller waits for the failure mail instead of losing it
+      deliverFailureMail(from);
+    }
+  }
+
+  private static boolean isFailureMail(Email email) {
+    return email.getFrom() == null;
+  }
+
+  private void deliverFailureMail(String from) {
     String domain = from.split("@")[1];
-    if (establishClientConnection(domain)) {
-      sendMail(new Email("mailer@[" + mailboxSocket.getInetAddress().getHostAddress() + "]",
-              from, "Failed to send Email", "Failed to send Email"));
+    MailboxConnection connection = establishClientConnection(domain);
+    if (connection == null) {
+      LOG.error("Could not notify " + from + ", the message stays in the dead letter queue");
+    } else {
+      Email failureMail = new Email("mailer@[" + connection.getHostAddress() + "]",
+              from, FAILURE_SUBJECT, FAILURE_SUBJECT);
+      TransactionResult result = sendMail(List.of(failureMail), null, connection).get(0);
+      connectionPool.release(connection);
+      if (result.isTransient()) {
+        circuitBreaker.onFailure(connection.getAddress());
+      } else {
+        circuitBreaker.onSuccess(connection.getAddress());
+      }
+      if (!result.isSuccess()) {
+        LOG.error("Could not deliver failure mail to " + from + ": " + result.getFailure());
+      }
     }
 
   }
@@ -0,0 +1,217 @@
+package dslab.transfer;
+
+import dslab.util.Config;
+import dslab.util.datastructures.AbstractRingBuffer;
+import dslab.util.datastructures.Email;
+import dslab.util.datastructures.MpmcRingBuffer;
+import dslab.util.datastructures.MpscRingBuffer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The delivery queue of the {@link MessageDistributer}, split into lanes so a burst of large messages does not delay
+ * everything behind it.
+ * <ul>
+ * <li>{@link Lane#SYSTEM}: failure mails to senders</li>
+ * <li>{@link Lane#INTERACTIVE}: all other messages</li>
+ * <li>{@link Lane#BULK}: messages of at least {@code lanes.bulk.bytes} bytes or from one of the
+ * {@code lanes.bulk.senders}</li>
+ * </ul>
+ * Every lane is a lock-free ring buffer of its own. The delivery workers serve them by smooth weighted round robin
+ * with the weights {@code lanes.weight.system}, {@code lanes.weight.interactive} and {@code lanes.weight.bulk}: the
+ * order of one round, in which every lane appears as often as its weight and as evenly spread as possible, is
+ * computed once, and the workers walk it with a shared atomic cursor. A slot of an empty lane is skipped, so the
+ * lanes holding messages share the polls by their weights, e.g. weights 3 and 1 give I I B I. Taking a message
+ * therefore never locks. A semaphore counts the messages of all lanes, so a worker only blocks while every lane is
+ * empty.
+ */
+public class PriorityLanes {
+
+  /**
+   * The lanes in the order of their priority
+   */
+  public enum Lane {
+    SYSTEM, INTERACTIVE, BULK
+  }
+
+  private static final Lane[] LANES = Lane.values();
+  private final AbstractRingBuffer<Email>[] queues;
+  //lane index of every slot of one round of the weighted round robin
+  private final int[] schedule;
+  //next slot of the round robin, shared by all workers
+  private final AtomicLong cursor = new AtomicLong();
+  //messages in all lanes, released after a message was added and acquired before one is taken
+  private final Semaphore available = new Semaphore(0);
+  private final long bulkBytes;
+  private final Set<String> bulkSenders = new HashSet<>();
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public PriorityLanes(Config transferConfig, int queueSize, boolean singleConsumer) {
+    this.queues = new AbstractRingBuffer[LANES.length];
+    for (Lane lane : LANES) {
+      int size = lane == Lane.SYSTEM ? transferConfig.getInt("lanes.system.size", 256) : queueSize;
+      queues[lane.ordinal()] = singleConsumer ? new MpscRingBuffer<>(size) : new MpmcRingBuffer<>(size);
+    }
+    this.schedule = schedule(new int[]{
+            Math.max(1, transferConfig.getInt("lanes.weight.system", 4)),
+            Math.max(1, transferConfig.getInt("lanes.weight.interactive", 3)),
+            Math.max(1, transferConfig.getInt("lanes.weight.bulk", 1))});
+    this.bulkBytes = transferConfig.getInt("lanes.bulk.bytes", 64 * 1024);
+    if (transferConfig.containsKey("lanes.bulk.senders")) {
+      for (String sender : transferConfig.getString("lanes.bulk.senders").split(",")) {
+        if (!sender.isBlank()) {
+          bulkSenders.add(sender.trim());
+        }
+      }
+    }
+  }
+
+  /**
+   * @param email a message accepted from a client
+   * @return {@link Lane#BULK} for large messages and bulk senders, otherwise {@link Lane#INTERACTIVE}
+   */
+  public Lane classify(Email email) {
+    if (AdmissionControl.sizeOf(email) >= bulkBytes || bulkSenders.contains(email.getFrom())) {
+      return Lane.BULK;
+    }
+    return Lane.INTERACTIVE;
+  }
+
+  /**
+   * Adds a message to a lane, waiting for space at most the given time
+   *
+   * @return false if the lane stayed full
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   */
+  public boolean offer(Lane lane, Email email, long timeout, TimeUnit unit) throws InterruptedException {
+    if (!queues[lane.ordinal()].offer(email, timeout, unit)) {
+      return false;
+    }
+    available.release();
+    return true;
+  }
+
+  /**
+   * Adds a message to a lane without waiting
+   *
+   * @return false if the lane is full
+   */
+  public boolean offer(Lane lane, Email email) {
+    if (!queues[lane.ordinal()].offer(email)) {
+      return false;
+    }
+    available.release();
+    return true;
+  }
+
+  /**
+   * Adds all messages to a lane as one block, waiting for space at most the given time
+   *
+   * @return false if the lane had no space for all of them, none was added then
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   */
+  public boolean offerAll(Lane lane, List<Email> emails, long timeout, TimeUnit unit) throws InterruptedException {
+    if (!queues[lane.ordinal()].offerAll(emails, timeout, unit)) {
+      return false;
+    }
+    available.release(emails.size());
+    return true;
+  }
+
+  /**
+   * Adds a message to a lane, waiting until there is space
+   *
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   */
+  public void put(Lane lane, Email email) throws InterruptedException {
+    queues[lane.ordinal()].put(email);
+    available.release();
+  }
+
+  /**
+   * Takes the next message in weighted round robin order, waiting at most the given time if all lanes are empty
+   *
+   * @return the message or null if all lanes stayed empty
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   */
+  public Email poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return available.tryAcquire(timeout, unit) ? next() : null;
+  }
+
+  /**
+   * Takes the next message in weighted round robin order without waiting
+   *
+   * @return the message or null if all lanes are empty
+   */
+  public Email poll() {
+    return available.tryAcquire() ? next() : null;
+  }
+
+  /**
+   * Takes a message from the lane of the next slot of the round robin, a slot of an empty lane is skipped
+   */
+  private Email next() {
+    //the caller holds a permit, so at least one lane has a message for it
+    while (true) {
+      for (int i = 0; i < schedule.length; i++) {
+        Email email = queues[schedule[(int) (cursor.getAndIncrement() % schedule.length)]].poll();
+        if (email != null) {
+          return email;
+        }
+      }
+      //other workers took the messages seen by this one, theirs arrive in a moment
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * Computes one round of the smooth weighted round robin: in every step each lane gains its weight, the lane with
+   * the most credit gets the slot and pays the weights of all lanes
+   *
+   * @return the lane index of every slot, each lane appears as often as its weight
+   */
+  static int[] schedule(int[] weights) {
+    int total = 0;
+    for (int weight : weights) {
+      total += weight;
+    }
+    int[] schedule = new int[total];
+    int[] current = new int[weights.length];
+    for (int slot = 0; slot < total; slot++) {
+      int best = 0;
+      for (int i = 0; i < weights.length; i++) {
+        current[i] += weights[i];
+        if (current[i] > current[best]) {
+          best = i;
+        }
+      }
+      current[best] -= total;
+      schedule[slot] = best;
+    }
+    return schedule;
+  }
+
+  /**
+   * @return the number of messages in all lanes
+   */
+  public int size() {
+    int size = 0;
+    for (AbstractRingBuffer<Email> queue : queues) {
+      size += queue.size();
+    }
+    return size;
+  }
+
+  public int size(Lane lane) {
+    return queues[lane.ordinal()].size();
+  }
+
+  public int capacity(Lane lane) {
+    return queues[lane.ordinal()].capacity();
+  }
+}
@@ -0,0 +1,160 @@
+package dslab.transfer;
+
+import dslab.util.Config;
+import dslab.util.datastructures.Email;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Schedules deliveries that failed transiently (mailbox server not reachable, no response) for another attempt.
+ * <p>
+ * The n-th retry of a message is due after {@code retry.initial.delay.ms * retry.multiplier^(n-1)}, capped at
+ * {@code retry.max.delay.ms}, of which a random half is jitter so messages failing together do not retry together.
+ * A message is not retried anymore after {@code retry.max.attempts} attempts or once it is older than
+ * {@code retry.max.age.ms}; only then the sender gets a failure mail.
+ * <p>
+ * Pending retries wait in a {@link DelayQueue}, a single timer thread takes them once they are due and hands them
+ * to the given callback, which must not block.
+ */
+public class RetryScheduler {
+
+  private static final Log LOG = LogFactory.getLog(RetryScheduler.class);
+  private final DelayQueue<Retry> retries = new DelayQueue<>();
+  private final Consumer<Retry> onDue;
+  private final long initialDelayMs;
+  private final long maxDelayMs;
+  private final double multiplier;
+  private final int maxAttempts;
+  private final long maxAgeMs;
+  private final Thread timer;
+
+  /**
+   * One delivery of a message to one of its domains waiting for its next attempt
+   */
+  public static class Retry implements Delayed {
+    private final Email email;
+    private final String domain;
+    private final int attempts;
+    private final long firstAttempt;
+    private final long dueAt;
+
+    private Retry(Email email, String domain, int attempts, long firstAttempt, long dueAt) {
+      this.email = email;
+      this.domain = domain;
+      this.attempts = attempts;
+      this.firstAttempt = firstAttempt;
+      this.dueAt = dueAt;
+    }
+
+    public Email getEmail() {
+      return email;
+    }
+
+    public String getDomain() {
+      return domain;
+    }
+
+    /**
+     * @return the number of failed attempts so far
+     */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    /**
+     * @return the time of the first attempt in milliseconds since the epoch
+     */
+    public long getFirstAttempt() {
+      return firstAttempt;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(dueAt, ((Retry) other).dueAt);
+    }
+  }
+
+  public RetryScheduler(Config transferConfig, Consumer<Retry> onDue) {
+    this.onDue = onDue;
+    this.initialDelayMs = Math.max(1, transferConfig.getInt("retry.initial.delay.ms", 1000));
+    this.maxDelayMs = Math.max(initialDelayMs, transferConfig.getInt("retry.max.delay.ms", 60000));
+    this.multiplier = transferConfig.containsKey("retry.multiplier")
+            ? Double.parseDouble(transferConfig.getString("retry.multiplier")) : 2.0;
+    this.maxAttempts = transferConfig.getInt("retry.max.attempts", 8);
+    this.maxAgeMs = transferConfig.getInt("retry.max.age.ms", 600000);
+    this.timer = new Thread(this::run, "retryScheduler");
+    this.timer.setDaemon(true);
+  }
+
+  public void start() {
+    timer.start();
+  }
+
+  /**
+   * Schedules the next attempt of a failed delivery
+   *
+   * @param email        the message
+   * @param domain       the domain the delivery failed for
+   * @param attempts     number of failed attempts including the one that just failed
+   * @param firstAttempt time of the first attempt in milliseconds since the epoch
+   * @return false if the retries are exhausted and the delivery has to be given up
+   */
+  public boolean schedule(Email email, String domain, int attempts, long firstAttempt) {
+    long now = System.currentTimeMillis();
+    if (attempts >= maxAttempts || now - firstAttempt >= maxAgeMs) {
+      return false;
+    }
+    long delay = delayFor(attempts);
+    retries.add(new Retry(email, domain, attempts, firstAttempt, now + delay));
+    LOG.info("Retrying delivery to " + domain + " in " + delay + "ms (attempt " + (attempts + 1) + ")");
+    return true;
+  }
+
+  /**
+   * @return the number of deliveries waiting for their next attempt
+   */
+  public int pending() {
+    return retries.size();
+  }
+
+  /**
+   * Stops the timer thread, pending retries are dropped
+   */
+  public void shutdown() {
+    timer.interrupt();
+    retries.clear();
+  }
+
+  /**
+   * Backoff with equal jitter: the delay is at least half of the exponential delay
+   */
+  long delayFor(int attempts) {
+    double exponential = initialDelayMs * Math.pow(multiplier, Math.max(0, attempts - 1));
+    long delay = (long) Math.min(maxDelayMs, exponential);
+    long half = delay / 2;
+    return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+  }
+
+  private void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        onDue.accept(retries.take());
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        LOG.error("Retry failed: " + e.getMessage());
+      }
+    }
+  }
+}
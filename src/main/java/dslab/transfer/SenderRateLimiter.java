@@ -0,0 +1,163 @@
+package dslab.transfer;
+
+import dslab.util.Config;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits how many messages a single sender address may hand to the Transfer Server, so one sender cannot fill the
+ * delivery queue for everybody.
+ * <p>
+ * Every sender has a token bucket holding up to {@code ratelimit.burst} messages which is refilled with
+ * {@code ratelimit.rate} messages per second. The bucket is kept as a single {@link AtomicLong}, the time at which
+ * it is full again, and is updated by compare-and-set, so checking a sender never locks. A bucket that is full
+ * again carries no information: it is dropped by a sweep of its stripe, so memory only grows with the senders that
+ * were active during the last {@code burst / rate} seconds. The buckets are spread over {@code ratelimit.stripes}
+ * maps, a sweep only walks one of them.
+ * <p>
+ * If a stripe holds more than its share of {@code ratelimit.max.senders} buckets even after a sweep, further
+ * senders of that stripe are let through unlimited instead of growing the map.
+ */
+public class SenderRateLimiter {
+
+  private static final Log LOG = LogFactory.getLog(SenderRateLimiter.class);
+  //acquisitions of a stripe between two sweeps of it
+  private static final int SWEEP_INTERVAL = 1024;
+  private final boolean enabled;
+  //nanoseconds to refill one token and to refill the whole bucket
+  private final long refillNanos;
+  private final long burstNanos;
+  private final int maxPerStripe;
+  private final Stripe[] stripes;
+  private final LongAdder throttled = new LongAdder();
+
+  private static class Stripe {
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger untilSweep = new AtomicInteger(SWEEP_INTERVAL);
+  }
+
+  public SenderRateLimiter(Config transferConfig) {
+    int rate = transferConfig.getInt("ratelimit.rate", 10);
+    int burst = Math.max(1, transferConfig.getInt("ratelimit.burst", 50));
+    int stripeCount = Math.max(1, transferConfig.getInt("ratelimit.stripes", 16));
+    this.enabled = rate > 0;
+    this.refillNanos = enabled ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+    this.burstNanos = refillNanos * burst;
+    this.maxPerStripe = Math.max(1, transferConfig.getInt("ratelimit.max.senders", 100000) / stripeCount);
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Takes a token from the bucket of the sender
+   *
+   * @param sender address of the sender
+   * @return false if the sender exceeded its rate and the message has to be rejected
+   */
+  public boolean tryAcquire(String sender) {
+    if (!enabled) {
+      return true;
+    }
+    long now = System.nanoTime();
+    Stripe stripe = stripe(sender);
+    if (stripe.untilSweep.decrementAndGet() <= 0) {
+      stripe.untilSweep.set(SWEEP_INTERVAL);
+      sweep(stripe, now);
+    }
+    AtomicLong fullAt = stripe.buckets.get(sender);
+    if (fullAt == null) {
+      if (stripe.buckets.size() >= maxPerStripe) {
+        sweep(stripe, now);
+        if (stripe.buckets.size() >= maxPerStripe) {
+          return true;
+        }
+      }
+      fullAt = stripe.buckets.computeIfAbsent(sender, s -> new AtomicLong(now));
+    }
+    while (true) {
+      long current = fullAt.get();
+      //taking a token moves the time the bucket is full again one refill further, starting from now if it is full
+      long next = Math.max(current, now) + refillNanos;
+      if (next - now > burstNanos) {
+        throttled.increment();
+        return false;
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back the token taken for a message that was not accepted after all, e.g. because the server was busy, so
+   * a client sending the transaction again is not throttled for it
+   *
+   * @param sender address of the sender
+   */
+  public void release(String sender) {
+    if (!enabled) {
+      return;
+    }
+    AtomicLong fullAt = stripe(sender).buckets.get(sender);
+    if (fullAt == null) {
+      //the bucket was full and dropped, or the sender was let through untracked
+      return;
+    }
+    long now = System.nanoTime();
+    fullAt.updateAndGet(current -> Math.max(now, current - refillNanos));
+  }
+
+  private Stripe stripe(String sender) {
+    return stripes[Math.floorMod(spread(sender.hashCode()), stripes.length)];
+  }
+
+  /**
+   * Drops the buckets of a stripe which are full again. A sender taking a token from a bucket while it is dropped
+   * gets at most one message more than its burst.
+   */
+  private void sweep(Stripe stripe, long now) {
+    int removed = 0;
+    Iterator<AtomicLong> buckets = stripe.buckets.values().iterator();
+    while (buckets.hasNext()) {
+      if (buckets.next().get() - now <= 0) {
+        buckets.remove();
+        removed++;
+      }
+    }
+    if (removed > 0 && LOG.isDebugEnabled()) {
+      LOG.debug("Dropped " + removed + " idle sender buckets");
+    }
+  }
+
+  /**
+   * @return the number of senders with a bucket that is not full
+   */
+  public int trackedSenders() {
+    int senders = 0;
+    for (Stripe stripe : stripes) {
+      senders += stripe.buckets.size();
+    }
+    return senders;
+  }
+
+  /**
+   * @return the number of rejected messages since the start
+   */
+  public long getThrottled() {
+    return throttled.sum();
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
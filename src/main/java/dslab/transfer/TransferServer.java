@@ -2,7 +2,14 @@ package dslab.transfer;
 
 import dslab.ComponentFactory;
 import dslab.shell.IShell;
+import dslab.transfer.connection.CircuitBreaker;
 import dslab.transfer.dmtp.DmtpListenerThread;
+import dslab.transfer.dmtp.IDmtpFrontEnd;
+import dslab.transfer.dmtp.NioDmtpServer;
+import dslab.transfer.lookup.ResolutionCache;
+import dslab.transfer.metrics.LatencyHistogram;
+import dslab.transfer.metrics.StatisticsReporter;
+import dslab.transfer.metrics.TransferMetrics;
 import dslab.util.Config;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -11,6 +18,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.ServerSocket;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class TransferServer implements ITransferServer, Runnable {
 
@@ -20,7 +31,9 @@ public class TransferServer implements ITransferServer, Runnable {
   private final Config transferConfig;
   private final Log LOG = LogFactory.getLog(TransferServer.class);
   private ServerSocket dmtpSocket;
-  private DmtpListenerThread dmtpListenerThread;
+  private IDmtpFrontEnd dmtpFrontEnd;
+  private final MessageDistributer messageDistributer;
+  private boolean shutDown = false;
 
   /**
    * Creates a new server instance.
@@ -35,6 +48,7 @@ public class TransferServer implements ITransferServer, Runnable {
     this.out = out;
     this.transferConfig = config;
     tcpDmtpPort = transferConfig.getInt("tcp.port");
+    messageDistributer = new MessageDistributer(transferConfig);
   }
 
   public static void main(String[] args) throws Exception {
@@ -44,11 +58,12 @@ public class TransferServer implements ITransferServer, Runnable {
 
   @Override
   public void run() {
+    messageDistributer.start();
     createDmtpListenerThread();
     LOG.info("Server is up!");
 
     try {
-      IShell shell = ComponentFactory.createBasicShell("shell-transfer", in, out);
+      IShell shell = ComponentFactory.createTransferShell(this, "shell-transfer", in, out);
       shell.run();
     } catch (Exception e) {
       e.printStackTrace();
@@ -57,21 +72,178 @@ public class TransferServer implements ITransferServer, Runnable {
     shutdown();
   }
 
+  /**
+   * Drains the server before it stops: no new clients are accepted, connected clients get
+   * {@code drain.session.timeout.ms} to quit and the queued messages {@code drain.timeout.ms} to be delivered.
+   * Prints how many messages were delivered meanwhile, how many stay in the spool for the next start and how many
+   * dead letters are abandoned.
+   */
   @Override
-  public void shutdown() {
+  public synchronized void shutdown() {
+    if (shutDown) {
+      return;
+    }
+    shutDown = true;
+    long start = System.currentTimeMillis();
+    long deliveriesBefore = messageDistributer.deliveries();
+    int disconnected = 0;
+    boolean drained = false;
     try {
-      dmtpSocket.close();
+      if (dmtpFrontEnd != null) {
+        disconnected = dmtpFrontEnd.drain(transferConfig.getInt("drain.session.timeout.ms", 2000));
+      } else if (dmtpSocket != null) {
+        dmtpSocket.close();
+      }
+      drained = messageDistributer.drain(transferConfig.getInt("drain.timeout.ms", 5000));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     } catch (IOException e) {
-      e.printStackTrace();
+      LOG.error(e.getMessage());
+    }
+    int spooled = messageDistributer.queuedMessages() + messageDistributer.inFlightMessages();
+    int abandoned = messageDistributer.getDeadLetters().size();
+    messageDistributer.shutdown();
+
+    String report = (drained ? "drained" : "drain timed out") + " after " + (System.currentTimeMillis() - start)
+            + "ms: delivered " + (messageDistributer.deliveries() - deliveriesBefore)
+            + ", spooled " + spooled
+            + ", abandoned " + abandoned
+            + ", disconnected clients " + disconnected;
+    LOG.info(report);
+    out.println(report);
+  }
+
+  /**
+   * CLI command printing the statistics of the domain resolution cache
+   */
+  public void cache() {
+    ResolutionCache cache = messageDistributer.getDomainResolver().getCache();
+    out.println("entries " + cache.size());
+    out.println("hits " + cache.getHits());
+    out.println("negative-hits " + cache.getNegativeHits());
+    out.println("misses " + cache.getMisses());
+    out.println("evictions " + cache.getEvictions());
+  }
+
+  /**
+   * CLI command printing the load of the server and how many messages were accepted and rejected
+   */
+  public void admission() {
+    AdmissionControl admissionControl = messageDistributer.getAdmissionControl();
+    out.println("state " + (admissionControl.isBusy() ? "busy" : "accepting"));
+    out.println("messages " + admissionControl.getMessages());
+    out.println("bytes " + admissionControl.getBytes());
+    out.println("accepted " + admissionControl.getAccepted());
+    out.println("rejected " + admissionControl.getRejected());
+    out.println("throttled " + messageDistributer.getRateLimiter().getThrottled());
+    out.println("rate-limited-senders " + messageDistributer.getRateLimiter().trackedSenders());
+  }
+
+  /**
+   * CLI command printing where the accepted messages currently are
+   */
+  public void queue() {
+    out.println("queued " + messageDistributer.queuedMessages());
+    out.println("in-flight " + messageDistributer.inFlightMessages());
+    out.println("retrying " + messageDistributer.pendingRetries());
+    out.println("dead-letters " + messageDistributer.getDeadLetters().size());
+  }
+
+  /**
+   * CLI command printing the latency percentiles of every stage in microseconds, followed by the gauges of the
+   * queue, its lanes, the messages in flight and the usage statistics sent to the monitoring server
+   */
+  public void metrics() {
+    TransferMetrics metrics = messageDistributer.getMetrics();
+    for (TransferMetrics.Stage stage : TransferMetrics.Stage.values()) {
+      LatencyHistogram histogram = metrics.get(stage);
+      out.println(stage.getLabel() + " count " + histogram.count()
+              + " p50 " + micros(histogram.percentile(50))
+              + " p99 " + micros(histogram.percentile(99))
+              + " p999 " + micros(histogram.percentile(99.9))
+              + " max " + micros(histogram.max()));
     }
-    dmtpListenerThread.stopThread();
+    out.println("queue-depth " + messageDistributer.queuedMessages());
+    for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+      out.println("lane-" + lane.name().toLowerCase() + " " + messageDistributer.queuedMessages(lane));
+    }
+    out.println("in-flight " + messageDistributer.inFlightMessages());
+    StatisticsReporter statistics = messageDistributer.getStatistics();
+    out.println("statistics-sent " + statistics.sentRecords() + " datagrams " + statistics.sentDatagrams()
+            + " dropped " + statistics.dropped());
+  }
+
+  private static String micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
   }
 
+  /**
+   * CLI command printing the circuit state of every mailbox address a delivery was attempted to
+   */
+  public void circuits() {
+    Map<String, CircuitBreaker.State> states = messageDistributer.getCircuitBreaker().states();
+    if (states.isEmpty()) {
+      out.println("no circuits");
+      return;
+    }
+    states.forEach((address, state) -> out.println(address + " " + state.name().toLowerCase().replace('_', '-')));
+  }
+
+  /**
+   * CLI command listing the dead letters, oldest first
+   */
+  public void dlq() {
+    List<DeadLetterQueue.DeadLetter> deadLetters = messageDistributer.getDeadLetters().list();
+    if (deadLetters.isEmpty()) {
+      out.println("no dead letters");
+      return;
+    }
+    for (DeadLetterQueue.DeadLetter deadLetter : deadLetters) {
+      out.println(deadLetter.getId() + " " + deadLetter.getEmail().getFrom() + " -> " + deadLetter.getDomain()
+              + " attempts " + deadLetter.getAttempts()
+              + " first " + Instant.ofEpochMilli(deadLetter.getFirstAttempt())
+              + " failed " + Instant.ofEpochMilli(deadLetter.getFailedAt())
+              + " reason " + deadLetter.getReason());
+    }
+  }
+
+  /**
+   * CLI command delivering a dead letter again
+   *
+   * @param id id of the dead letter or {@code all}
+   */
+  public void dlqRetry(String id) {
+    if (id.equals("all")) {
+      out.println("retrying " + messageDistributer.retryDeadLetters() + " dead letter(s)");
+      return;
+    }
+    try {
+      out.println(messageDistributer.retryDeadLetter(Long.parseLong(id)) ? "retrying " + id : "error unknown id " + id);
+    } catch (NumberFormatException e) {
+      out.println("error invalid id " + id);
+    }
+  }
+
+  /**
+   * CLI command dropping all dead letters
+   */
+  public void dlqPurge() {
+    out.println("purged " + messageDistributer.purgeDeadLetters() + " dead letter(s)");
+  }
+
+  /**
+   * Starts the DMTP front end configured by {@code dmtp.frontend}: {@code blocking} (default) serves every client
+   * by its own thread, {@code nio} serves all clients by a few selector threads
+   */
   public void createDmtpListenerThread() {
     try {
-      dmtpSocket = new ServerSocket(tcpDmtpPort);
-      dmtpListenerThread = new DmtpListenerThread(dmtpSocket, transferConfig);
-      dmtpListenerThread.start();
+      if (transferConfig.containsKey("dmtp.frontend") && transferConfig.getString("dmtp.frontend").equals("nio")) {
+        dmtpFrontEnd = new NioDmtpServer(tcpDmtpPort, messageDistributer, transferConfig);
+      } else {
+        dmtpSocket = new ServerSocket(tcpDmtpPort);
+        dmtpFrontEnd = new DmtpListenerThread(dmtpSocket, messageDistributer);
+      }
+      dmtpFrontEnd.start();
     } catch (IOException e) {
       LOG.error(e.getMessage());
     }
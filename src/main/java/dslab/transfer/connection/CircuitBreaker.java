@@ -0,0 +1,156 @@
+package dslab.transfer.connection;
+
+import dslab.util.Config;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breakers for the mailbox server addresses, so deliveries to a server that is down fail at once instead of
+ * each of them waiting for a connect timeout.
+ * <p>
+ * Every address starts <em>closed</em>: deliveries go through and their outcome is recorded in a window of the last
+ * {@code breaker.window} outcomes. Once the window holds at least {@code breaker.min.calls} outcomes and
+ * {@code breaker.failure.rate} percent of them are failures, the breaker <em>opens</em> and every delivery is refused
+ * for {@code breaker.open.ms}. Afterwards it is <em>half-open</em>: a single delivery is let through as a probe, its
+ * success closes the breaker again, its failure opens it for another {@code breaker.open.ms}.
+ * <p>
+ * Only failures of the connection count (connect errors, lost connections, missing responses). A message rejected
+ * by the mailbox server is an answer of a healthy server and counts as success.
+ */
+public class CircuitBreaker {
+
+  private static final Log LOG = LogFactory.getLog(CircuitBreaker.class);
+  private final int windowSize;
+  private final int minCalls;
+  private final int failureRate;
+  private final long openMs;
+  private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+  /**
+   * States of the circuit of one address
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  /**
+   * Circuit of one address, all fields are guarded by the circuit itself
+   */
+  private class Circuit {
+    private final boolean[] window = new boolean[windowSize];
+    private int calls = 0;
+    private int failures = 0;
+    private int next = 0;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing = false;
+
+    private synchronized boolean allow(long now) {
+      if (state == State.OPEN && now - openedAt >= openMs) {
+        state = State.HALF_OPEN;
+        probing = false;
+      }
+      if (state == State.HALF_OPEN && !probing) {
+        probing = true;
+        return true;
+      }
+      return state == State.CLOSED;
+    }
+
+    private synchronized void record(String address, boolean failed, long now) {
+      if (state == State.HALF_OPEN) {
+        if (failed) {
+          open(address, now);
+        } else {
+          LOG.info("Circuit of " + address + " closed");
+          reset();
+        }
+        return;
+      }
+      if (state == State.OPEN) {
+        //outcome of a delivery started before the circuit opened
+        return;
+      }
+      if (calls == windowSize && window[next]) {
+        failures--;
+      }
+      window[next] = failed;
+      if (failed) {
+        failures++;
+      }
+      next = (next + 1) % windowSize;
+      calls = Math.min(windowSize, calls + 1);
+      if (calls >= minCalls && failures * 100 >= failureRate * calls) {
+        open(address, now);
+      }
+    }
+
+    private void open(String address, long now) {
+      LOG.info("Circuit of " + address + " opened (" + failures + " of " + calls + " deliveries failed)");
+      state = State.OPEN;
+      openedAt = now;
+      probing = false;
+    }
+
+    private void reset() {
+      state = State.CLOSED;
+      calls = 0;
+      failures = 0;
+      next = 0;
+      probing = false;
+    }
+
+    private synchronized State state(long now) {
+      return state == State.OPEN && now - openedAt >= openMs ? State.HALF_OPEN : state;
+    }
+  }
+
+  public CircuitBreaker(Config transferConfig) {
+    this.windowSize = Math.max(1, transferConfig.getInt("breaker.window", 20));
+    this.minCalls = Math.max(1, Math.min(windowSize, transferConfig.getInt("breaker.min.calls", 5)));
+    this.failureRate = Math.max(1, transferConfig.getInt("breaker.failure.rate", 50));
+    this.openMs = transferConfig.getInt("breaker.open.ms", 5000);
+  }
+
+  /**
+   * Decides whether a delivery to the address may be attempted. Every allowed delivery has to be followed by
+   * {@link #onSuccess} or {@link #onFailure}.
+   *
+   * @param address mailbox address in the form host:port
+   * @return false if the circuit is open
+   */
+  public boolean allow(String address) {
+    return circuit(address).allow(System.currentTimeMillis());
+  }
+
+  public void onSuccess(String address) {
+    circuit(address).record(address, false, System.currentTimeMillis());
+  }
+
+  public void onFailure(String address) {
+    circuit(address).record(address, true, System.currentTimeMillis());
+  }
+
+  public State getState(String address) {
+    Circuit circuit = circuits.get(address);
+    return circuit == null ? State.CLOSED : circuit.state(System.currentTimeMillis());
+  }
+
+  /**
+   * @return the state of every address a delivery was attempted to, sorted by address
+   */
+  public Map<String, State> states() {
+    long now = System.currentTimeMillis();
+    Map<String, State> states = new TreeMap<>();
+    circuits.forEach((address, circuit) -> states.put(address, circuit.state(now)));
+    return states;
+  }
+
+  private Circuit circuit(String address) {
+    return circuits.computeIfAbsent(address, a -> new Circuit());
+  }
+}
@@ -0,0 +1,389 @@
+package dslab.transfer.connection;
+
+import dslab.util.datastructures.DataFile;
+import dslab.util.datastructures.Email;
+import dslab.util.dmtp.DataCompression;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One DMTP session from the Transfer Server to a Mailbox Server.
+ * <p>
+ * Connections are created and handed out by the {@link MailboxConnectionPool} and are kept open
+ * between messages, so a delivery worker can reuse a warm session instead of reconnecting.
+ * <p>
+ * The session is pipelined: {@link #send(List)} writes whole transactions back to back and flushes once,
+ * without waiting for the single responses. A reader thread matches the responses of the mailbox server
+ * to the pending transactions in the order they were written and completes the transaction's future
+ * once all of its responses arrived.
+ * <p>
+ * If the mailbox server announces {@link DataCompression#CAPABILITY} in its greeting, bodies longer than the
+ * compression threshold are sent compressed as {@code data-deflate}.
+ * <p>
+ * Transactions are written with a single gathering write of the socket channel. The short parts of the
+ * transactions, the command keywords, addresses, subjects, hashes and bodies of at most {@value #COPY_LIMIT} bytes,
+ * are copied into one direct buffer the connection reuses, so a batch of small messages is a single buffer for the
+ * kernel instead of about 17 per message. A longer body is written from the UTF-8 bytes it was received in (see
+ * {@link Email#getDataBytes()}) without being copied. A body spilled to disk is copied from its file to the socket
+ * by the kernel, or compressed while it is read if it is above the compression threshold.
+ */
+public class MailboxConnection {
+
+  private static final Log LOG = LogFactory.getLog(MailboxConnection.class);
+  private static final byte[] BEGIN = ascii("begin\n");
+  private static final byte[] TO = ascii("to ");
+  private static final byte[] FROM = ascii("from ");
+  private static final byte[] SUBJECT = ascii("subject ");
+  private static final byte[] DATA = ascii("data ");
+  private static final byte[] DATA_DEFLATE = ascii("data-deflate ");
+  private static final byte[] HASH = ascii("hash ");
+  private static final byte[] SEND = ascii("send\n");
+  private static final byte[] QUIT = ascii("quit\n");
+  private static final byte[] LINE_BREAK = ascii("\n");
+  //parts up to this length are copied into the staging buffer, longer ones are written from their own array
+  private static final int COPY_LIMIT = 4 * 1024;
+  private static final int STAGING_SIZE = 64 * 1024;
+  private final String address;
+  private final SocketChannel channel;
+  private final Socket socket;
+  private final BufferedReader in;
+  //transactions are registered and written under this lock, so their responses arrive in the registered order
+  private final Object writeLock = new Object();
+  //bodies longer than this are compressed, Integer.MAX_VALUE if the mailbox server does not support it
+  private final int compressionThreshold;
+  private final Queue<PendingTransaction> pending = new ConcurrentLinkedQueue<>();
+  //the short parts of the transactions being written and the start of those not added to the buffers yet,
+  //both guarded by writeLock
+  private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_SIZE);
+  private int stagedFrom;
+  private volatile long lastUsed;
+  private volatile boolean dead = false;
+
+  /**
+   * @param connectTimeoutMs     limit for establishing the connection and for receiving the greeting
+   * @param compressionThreshold bodies longer than this are compressed if the mailbox server supports it, 0 to
+   *                             never compress
+   */
+  MailboxConnection(String address, int connectTimeoutMs, int compressionThreshold) throws IOException {
+    this.address = address;
+    String host = address.split(":")[0];
+    int port = Integer.parseInt(address.split(":")[1]);
+    channel = SocketChannel.open();
+    socket = channel.socket();
+    try {
+      socket.setKeepAlive(true);
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      //a mailbox server that accepts but never greets must not block the delivery worker
+      socket.setSoTimeout(connectTimeoutMs);
+      String greeting = in.readLine();
+      if (greeting == null || !greeting.startsWith("ok DMTP")) {
+        throw new IOException("unexpected greeting from " + address + ": " + greeting);
+      }
+      //the reader thread waits for responses as long as the session is open
+      socket.setSoTimeout(0);
+      this.compressionThreshold = compressionThreshold > 0 && DataCompression.isAnnounced(greeting)
+              ? compressionThreshold : Integer.MAX_VALUE;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    touch();
+    Thread reader = new Thread(this::readResponses, "mailboxReader-" + address);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * @return the resolved address ({@code host:port}) this connection belongs to
+   */
+  public String getAddress() {
+    return address;
+  }
+
+  /**
+   * @return the ip address of the connected mailbox server
+   */
+  public String getHostAddress() {
+    return socket.getInetAddress().getHostAddress();
+  }
+
+  /**
+   * Sends one DMTP transaction per email, all of them with a single write
+   *
+   * @param emails emails to send
+   * @return one future per email, completed when the mailbox server answered the whole transaction
+   */
+  public List<CompletableFuture<TransactionResult>> send(List<Email> emails) {
+    return send(emails, null);
+  }
+
+  /**
+   * Sends one DMTP transaction per email to the mailbox server of the given domain, all of them with a single write.
+   * The {@code to} line only lists the recipients of that domain, unless the email is signed: the hash covers the
+   * complete {@code to} line, so signed emails keep it and the mailbox server picks its recipients itself.
+   *
+   * @param emails emails to send
+   * @param domain domain of the mailbox server, null to send the complete {@code to} line
+   * @return one future per email, completed when the mailbox server answered the whole transaction
+   */
+  public List<CompletableFuture<TransactionResult>> send(List<Email> emails, String domain) {
+    List<CompletableFuture<TransactionResult>> results = new ArrayList<>(emails.size());
+    List<ByteBuffer> buffers = new ArrayList<>();
+    synchronized (writeLock) {
+      //a failed write may have left parts behind
+      staging.clear();
+      stagedFrom = 0;
+      try {
+        for (Email email : emails) {
+          PendingTransaction transaction = new PendingTransaction(email.getHashBytes() == null ? 6 : 7);
+          results.add(transaction.future);
+          if (dead) {
+            transaction.future.complete(TransactionResult.failed("connection to " + address + " lost"));
+            continue;
+          }
+          //register before writing, so the reader can never see a response without its transaction
+          pending.add(transaction);
+          appendTransaction(buffers, email, domain);
+        }
+        write(buffers);
+      } catch (IOException e) {
+        LOG.info("connection to " + address + " failed: " + e.getMessage());
+        markDead();
+        while (results.size() < emails.size()) {
+          results.add(CompletableFuture.completedFuture(
+                  TransactionResult.failed("connection to " + address + " lost")));
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Sends a single DMTP transaction
+   *
+   * @param email email to send
+   * @return future completed when the mailbox server answered the whole transaction
+   */
+  public CompletableFuture<TransactionResult> send(Email email) {
+    return send(List.of(email)).get(0);
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * @return true if the connection can still be used
+   */
+  boolean isAlive() {
+    return !dead && channel.isOpen();
+  }
+
+  /**
+   * @return true if all sent transactions were answered
+   */
+  boolean isIdle() {
+    return pending.isEmpty();
+  }
+
+  /**
+   * Ends the DMTP session and closes the socket
+   */
+  void close() {
+    synchronized (writeLock) {
+      if (!dead && channel.isOpen()) {
+        dead = true;
+        try {
+          write(ByteBuffer.wrap(QUIT));
+        } catch (IOException e) {
+          // connection is discarded anyway
+        }
+      }
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // connection is discarded anyway
+    }
+    failPending();
+  }
+
+  /**
+   * Adds the buffers of one transaction. A spilled body is streamed from its file, the buffers in front of it are
+   * written first.
+   */
+  private void appendTransaction(List<ByteBuffer> buffers, Email email, String domain) throws IOException {
+    add(buffers, BEGIN);
+    addLine(buffers, TO, utf8(domain == null || email.getHashBytes() != null
+            ? email.getTo() : email.getRecipients(domain)));
+    addLine(buffers, FROM, utf8(email.getFrom()));
+    addLine(buffers, SUBJECT, email.getSubjectBytes());
+    DataFile dataFile = email.getDataFile();
+    if (dataFile != null) {
+      boolean compress = dataFile.getLength() > compressionThreshold;
+      add(buffers, compress ? DATA_DEFLATE : DATA);
+      write(buffers);
+      if (compress) {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        try (InputStream in = dataFile.open()) {
+          DataCompression.encode(in, out);
+        }
+      } else {
+        dataFile.transferTo(channel);
+      }
+      add(buffers, LINE_BREAK);
+    } else {
+      byte[] data = email.getDataBytes();
+      if (data.length > compressionThreshold) {
+        addLine(buffers, DATA_DEFLATE, DataCompression.encode(data));
+      } else {
+        addLine(buffers, DATA, data);
+      }
+    }
+    if (email.getHashBytes() != null) {
+      addLine(buffers, HASH, email.getHashBytes());
+    }
+    add(buffers, SEND);
+  }
+
+  private void addLine(List<ByteBuffer> buffers, byte[] command, byte[] argument) throws IOException {
+    add(buffers, command);
+    add(buffers, argument);
+    add(buffers, LINE_BREAK);
+  }
+
+  /**
+   * Copies a short part into the staging buffer, a long one is added as a buffer of its own. A full staging buffer
+   * is written first.
+   */
+  private void add(List<ByteBuffer> buffers, byte[] part) throws IOException {
+    if (part.length > COPY_LIMIT) {
+      addStaged(buffers);
+      buffers.add(ByteBuffer.wrap(part));
+      return;
+    }
+    if (staging.remaining() < part.length) {
+      write(buffers);
+    }
+    staging.put(part);
+  }
+
+  /**
+   * Adds the parts copied into the staging buffer since the last call as one buffer
+   */
+  private void addStaged(List<ByteBuffer> buffers) {
+    if (staging.position() > stagedFrom) {
+      ByteBuffer staged = staging.duplicate();
+      staged.flip().position(stagedFrom);
+      buffers.add(staged);
+      stagedFrom = staging.position();
+    }
+  }
+
+  /**
+   * Writes all buffers and the staged parts, clears the list and the staging buffer
+   */
+  private void write(List<ByteBuffer> buffers) throws IOException {
+    addStaged(buffers);
+    write(buffers.toArray(new ByteBuffer[0]));
+    buffers.clear();
+    staging.clear();
+    stagedFrom = 0;
+  }
+
+  /**
+   * Writes all buffers, a gathering write may stop after a part of them
+   */
+  private void write(ByteBuffer... buffers) throws IOException {
+    int first = 0;
+    while (first < buffers.length) {
+      channel.write(buffers, first, buffers.length - first);
+      while (first < buffers.length && !buffers[first].hasRemaining()) {
+        first++;
+      }
+    }
+  }
+
+  private static byte[] utf8(String value) {
+    return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private void readResponses() {
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        PendingTransaction transaction = pending.peek();
+        if (transaction == null) {
+          if (!dead) {
+            LOG.info("unexpected response from " + address + ": " + line);
+          }
+          continue;
+        }
+        transaction.responses.add(line);
+        if (transaction.responses.size() == transaction.expectedResponses) {
+          pending.poll();
+          transaction.future.complete(TransactionResult.fromResponses(transaction.responses));
+        }
+      }
+    } catch (IOException e) {
+      if (!dead) {
+        LOG.info("connection to " + address + " failed: " + e.getMessage());
+      }
+    }
+    markDead();
+  }
+
+  private void markDead() {
+    dead = true;
+    failPending();
+  }
+
+  private void failPending() {
+    PendingTransaction transaction;
+    while ((transaction = pending.poll()) != null) {
+      transaction.future.complete(TransactionResult.failed("connection to " + address + " lost"));
+    }
+  }
+
+  /**
+   * A transaction that was written but not completely answered yet
+   */
+  private static class PendingTransaction {
+    private final int expectedResponses;
+    private final List<String> responses;
+    private final CompletableFuture<TransactionResult> future = new CompletableFuture<>();
+
+    private PendingTransaction(int expectedResponses) {
+      this.expectedResponses = expectedResponses;
+      this.responses = new ArrayList<>(expectedResponses);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package dslab.transfer.connection;
+
+import dslab.util.Config;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of outbound {@link MailboxConnection}s keyed by the resolved mailbox address ({@code host:port}).
+ * <p>
+ * At most {@code pool.max.per.host} connections are open to one address at the same time, a borrower
+ * waits up to {@code pool.borrow.timeout.ms} for a free one. Released connections stay open and are reused
+ * by the next borrower, connections idle for longer than {@code pool.idle.timeout.ms} are closed by a
+ * background evictor. Connections whose reader noticed that the mailbox server closed the session are
+ * discarded instead of being handed out again.
+ */
+public class MailboxConnectionPool {
+
+  private static final Log LOG = LogFactory.getLog(MailboxConnectionPool.class);
+  private final ConcurrentHashMap<String, HostPool> pools = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+  private final int maxPerHost;
+  private final int connectTimeoutMs;
+  private final long borrowTimeoutMs;
+  private final long idleTimeoutMs;
+  private final int compressionThreshold;
+  private volatile boolean closed = false;
+
+  public MailboxConnectionPool(Config transferConfig) {
+    this.maxPerHost = Math.max(1, transferConfig.getInt("pool.max.per.host", 4));
+    this.connectTimeoutMs = transferConfig.getInt("pool.connect.timeout.ms", 3000);
+    this.borrowTimeoutMs = transferConfig.getInt("pool.borrow.timeout.ms", 5000);
+    this.idleTimeoutMs = transferConfig.getInt("pool.idle.timeout.ms", 30000);
+    this.compressionThreshold = transferConfig.getInt("compression.threshold", 4096);
+    this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "connectionEvictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1000, idleTimeoutMs / 2);
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Hands out a connection to the given address, reusing an idle one if possible.
+   * Every borrowed connection has to be given back with {@link #release} or {@link #invalidate}.
+   *
+   * @param address resolved mailbox address in the form host:port
+   * @return an open connection
+   * @throws IOException if no connection could be established or the per host limit was reached for too long
+   */
+  public MailboxConnection borrow(String address) throws IOException {
+    if (closed) {
+      throw new IOException("connection pool is closed");
+    }
+    HostPool pool = pools.computeIfAbsent(address, a -> new HostPool(maxPerHost));
+    try {
+      if (!pool.permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new IOException("no free connection to " + address);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for a connection to " + address);
+    }
+    try {
+      MailboxConnection connection;
+      while ((connection = pool.idle.pollFirst()) != null) {
+        if (connection.isAlive()) {
+          return connection;
+        }
+        LOG.info("discarding dead connection to " + address);
+        connection.close();
+      }
+      LOG.info("establishConnection: " + address);
+      return new MailboxConnection(address, connectTimeoutMs, compressionThreshold);
+    } catch (IOException | RuntimeException e) {
+      pool.permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives a healthy connection back to the pool so it can be reused. Connections with unanswered
+   * transactions are closed, as later responses could not be matched anymore.
+   *
+   * @param connection previously borrowed connection
+   */
+  public void release(MailboxConnection connection) {
+    HostPool pool = pools.get(connection.getAddress());
+    connection.touch();
+    if (closed || pool == null || !connection.isAlive() || !connection.isIdle()) {
+      connection.close();
+    } else {
+      pool.idle.offerFirst(connection);
+    }
+    if (pool != null) {
+      pool.permits.release();
+    }
+  }
+
+  /**
+   * Closes a connection that failed while it was borrowed
+   *
+   * @param connection previously borrowed connection
+   */
+  public void invalidate(MailboxConnection connection) {
+    connection.close();
+    HostPool pool = pools.get(connection.getAddress());
+    if (pool != null) {
+      pool.permits.release();
+    }
+  }
+
+  /**
+   * Closes all idle connections and stops the evictor. Borrowed connections are closed when they are released.
+   */
+  public void close() {
+    closed = true;
+    evictor.shutdownNow();
+    for (HostPool pool : pools.values()) {
+      MailboxConnection connection;
+      while ((connection = pool.idle.pollFirst()) != null) {
+        connection.close();
+      }
+    }
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (HostPool pool : pools.values()) {
+      Iterator<MailboxConnection> iterator = pool.idle.descendingIterator();
+      while (iterator.hasNext()) {
+        MailboxConnection connection = iterator.next();
+        if (now - connection.getLastUsed() >= idleTimeoutMs && pool.idle.removeFirstOccurrence(connection)) {
+          LOG.info("evicting idle connection to " + connection.getAddress());
+          connection.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Idle connections and connection limit of a single mailbox address
+   */
+  private static class HostPool {
+    //most recently used connection first, so rarely used ones age out
+    private final Deque<MailboxConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+
+    private HostPool(int maxConnections) {
+      this.permits = new Semaphore(maxConnections, true);
+    }
+  }
+}
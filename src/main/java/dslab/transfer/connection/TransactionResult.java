@@ -0,0 +1,68 @@
+package dslab.transfer.connection;
+
+import java.util.List;
+
+/**
+ * Outcome of one DMTP transaction ({@code begin} ... {@code send}) sent to a mailbox server.
+ * A transaction succeeded if the mailbox server answered every line of it with {@code ok}.
+ */
+public class TransactionResult {
+
+  private final List<String> responses;
+  private final String failure;
+
+  private TransactionResult(List<String> responses, String failure) {
+    this.responses = responses;
+    this.failure = failure;
+  }
+
+  /**
+   * Creates the result from the responses the mailbox server sent for the transaction
+   *
+   * @param responses one response per request line, in request order
+   * @return the result
+   */
+  static TransactionResult fromResponses(List<String> responses) {
+    for (String response : responses) {
+      if (!response.startsWith("ok")) {
+        return new TransactionResult(responses, response);
+      }
+    }
+    return new TransactionResult(responses, null);
+  }
+
+  /**
+   * Creates the result of a transaction which could not be completed, e.g. because the connection was lost
+   *
+   * @param reason description of the failure
+   * @return the result
+   */
+  public static TransactionResult failed(String reason) {
+    return new TransactionResult(List.of(), reason);
+  }
+
+  public boolean isSuccess() {
+    return failure == null;
+  }
+
+  /**
+   * A transaction fails transiently if the mailbox server never answered it, e.g. because the connection was lost
+   * or timed out. Sending it again later may succeed, unlike a transaction the mailbox server rejected.
+   *
+   * @return true if the transaction failed without a response of the mailbox server
+   */
+  public boolean isTransient() {
+    return failure != null && responses.isEmpty();
+  }
+
+  /**
+   * @return the first response that was not ok, or the reason the transaction could not be completed
+   */
+  public String getFailure() {
+    return failure;
+  }
+
+  public List<String> getResponses() {
+    return responses;
+  }
+}
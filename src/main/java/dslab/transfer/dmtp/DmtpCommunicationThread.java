@@ -2,8 +2,14 @@ package dslab.transfer.dmtp;
 
 import dslab.mailbox.ClientCommunicator;
 import dslab.transfer.MessageDistributer;
-import dslab.util.Config;
+import dslab.transfer.metrics.TransferMetrics;
+import dslab.util.datastructures.DataFile;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -12,47 +18,90 @@ import java.util.Objects;
  * therefore it only implements {@link Runnable} not {@link Thread}
  * <p>
  * This is a short-lived Thread, only handling the Communication between one Connected Client and
- * then terminates.
+ * then terminates. Accepted messages are handed to the {@link MessageDistributer} shared by the whole server.
+ * <p>
+ * The requests are read as bytes and split by a {@link DmtpInput}, so large bodies are spilled to disk while they
+ * are received.
  */
 public class DmtpCommunicationThread implements Runnable {
 
+  private static final Log LOG = LogFactory.getLog(DmtpCommunicationThread.class);
   private final ClientCommunicator communicator;
-  private final MessageDistributer messageDistributer = new MessageDistributer();
-
-  //Consumer
-  Thread sender = new Thread(() -> {
-    Thread.currentThread().setName("senderThread");
-    messageDistributer.forward();
-  });
+  private final MessageDistributer messageDistributer;
+  //System.nanoTime() when the connection was accepted
+  private final long acceptedAt;
 
-  public DmtpCommunicationThread(ClientCommunicator communicator, Config transferConfig) {
+  public DmtpCommunicationThread(ClientCommunicator communicator, MessageDistributer messageDistributer,
+                                 long acceptedAt) {
     this.communicator = communicator;
-    Thread.currentThread().setName("DmtpCommunicationThread");
-    messageDistributer.setTransferConfig(transferConfig);
+    this.messageDistributer = messageDistributer;
+    this.acceptedAt = acceptedAt;
   }
 
   public void run() {
     //Producer
     DmtpRequestHandler requestHandler = new DmtpRequestHandler(messageDistributer);
-    requestHandler.start();
-    //Consumer
-    sender.start();
-    String request;
+    DmtpInput input = new DmtpInput(messageDistributer.getBodySpill());
     communicator.println("ok DMTP2.0");
     communicator.flush();
-    // read client requests
-    boolean stopped = false;
-    while (!stopped && (request = communicator.readLine()) != null && !Objects.equals(request, "quit")) {
-      String response;
-      response = requestHandler.handleRequest(request);
-      communicator.println(response);
+    messageDistributer.getMetrics().record(TransferMetrics.Stage.ACCEPT, acceptedAt);
+    boolean sayBye = true;
+    try {
+      sayBye = serve(requestHandler, input);
+    } catch (IOException e) {
+      LOG.error(e.getMessage());
+    } finally {
+      DataFile untaken = input.close();
+      if (untaken != null) {
+        messageDistributer.getBodySpill().delete(untaken);
+      }
+      requestHandler.close();
+    }
+    if (sayBye) {
+      communicator.println("ok bye");
       communicator.flush();
     }
-    communicator.println("ok bye");
-    communicator.flush();
     communicator.close();
   }
 
+  /**
+   * Reads and answers the client requests until the client quits or disconnects
+   *
+   * @return false if the client was refused because of a line that is too long
+   */
+  private boolean serve(DmtpRequestHandler requestHandler, DmtpInput input) throws IOException {
+    InputStream in = communicator.getInputStream();
+    byte[] buffer = new byte[8192];
+    while (true) {
+      // read client requests
+      while (input.next()) {
+        String request = input.line();
+        if (request == null) {
+          respond(input.handleData(requestHandler));
+          continue;
+        }
+        if (Objects.equals(request, "quit")) {
+          return true;
+        }
+        respond(requestHandler.handleRequest(request));
+      }
+      if (input.error() != null) {
+        respond(input.error());
+        return false;
+      }
+      int read = in.read(buffer);
+      if (read < 0) {
+        return true;
+      }
+      input.append(ByteBuffer.wrap(buffer, 0, read));
+    }
+  }
 
+  private void respond(String response) {
+    //requests inside a batch are answered together at its end
+    if (response != null) {
+      communicator.println(response);
+      communicator.flush();
+    }
+  }
 }
-
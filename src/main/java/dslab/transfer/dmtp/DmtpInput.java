@@ -0,0 +1,357 @@
+package dslab.transfer.dmtp;
+
+import dslab.transfer.spool.BodySpill;
+import dslab.util.datastructures.DataFile;
+import dslab.util.dmtp.DmtpParser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits the bytes received from a DMTP client into requests, for both front ends of the Transfer Server.
+ * <p>
+ * Requests are lines. The argument of a {@code data} line is not decoded but kept as the UTF-8 bytes it arrived as.
+ * Once a {@code data} line gets longer than the spill threshold of the {@link BodySpill}, its argument is streamed
+ * into a file while it is received and the request carries a {@link DataFile} instead, so a large body never has to
+ * fit into memory. Any other line longer than {@value #MAX_LINE_LENGTH} bytes is an error.
+ */
+class DmtpInput {
+
+  //a client sending a longer line without a line break is disconnected
+  static final int MAX_LINE_LENGTH = 1 << 20;
+  private static final int INITIAL_CAPACITY = 256;
+  //a buffer that grew beyond this for a long line is released once it is empty, so idle clients hold little memory
+  private static final int RETAINED_CAPACITY = 1 << 16;
+  private static final byte[] DATA = "data ".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CARRIAGE_RETURN = {'\r'};
+  //null if bodies are never spilled
+  private final BodySpill spill;
+  //received bytes not processed yet are input[inputStart, inputEnd), allocated on demand
+  private byte[] input;
+  private int inputStart = 0;
+  private int inputEnd = 0;
+  //input[inputStart, scanned) holds no line break, so every byte is searched once
+  private int scanned = 0;
+  //writer of the data line being spilled, null while no line is spilled
+  private BodySpill.Writer spilling;
+  //a '\r' received last while spilling, it is part of the body unless the line break follows
+  private boolean pendingCarriageReturn = false;
+  //a completely spilled body, it is the next request
+  private DataFile spilled;
+  //the request taken by next(): a line, or the body of a data line in memory or in a file
+  private String line;
+  private byte[] body;
+  private DataFile bodyFile;
+  private String error;
+
+  DmtpInput(BodySpill spill) {
+    this.spill = spill != null && spill.getThreshold() > 0 ? spill : null;
+  }
+
+  /**
+   * Adds received bytes. While a data line is spilled they go to its file up to the end of the line.
+   *
+   * @param data the received bytes, consumed completely
+   * @throws IOException if a spilled body cannot be written
+   */
+  void append(ByteBuffer data) throws IOException {
+    if (spilling != null) {
+      spill(data);
+      if (spilling != null || error != null) {
+        return;
+      }
+    }
+    int length = data.remaining();
+    reserve(length);
+    data.get(input, inputEnd, length);
+    inputEnd += length;
+  }
+
+  /**
+   * Makes room for more bytes behind the buffered ones. The buffered bytes are moved to the front if that frees at
+   * least half of the buffer, else it is doubled, so appending stays linear in the bytes received.
+   */
+  private void reserve(int length) {
+    if (input == null) {
+      input = new byte[Math.max(length, INITIAL_CAPACITY)];
+      return;
+    }
+    if (input.length - inputEnd >= length) {
+      return;
+    }
+    int buffered = inputEnd - inputStart;
+    if (buffered + length <= input.length && buffered <= input.length / 2) {
+      System.arraycopy(input, inputStart, input, 0, buffered);
+    } else {
+      byte[] grown = new byte[Math.max(buffered + length, input.length * 2)];
+      System.arraycopy(input, inputStart, grown, 0, buffered);
+      input = grown;
+    }
+    scanned -= inputStart;
+    inputStart = 0;
+    inputEnd = buffered;
+  }
+
+  /**
+   * Takes the next complete request, afterwards it is either {@link #line()} or the body of a data line handed to
+   * {@link #handleData}
+   *
+   * @return false if no complete request is buffered
+   * @throws IOException if a spilled body cannot be written
+   */
+  boolean next() throws IOException {
+    line = null;
+    body = null;
+    bodyFile = null;
+    if (error != null) {
+      return false;
+    }
+    spillBuffered();
+    if (spilled != null) {
+      bodyFile = spilled;
+      spilled = null;
+      return true;
+    }
+    if (spilling != null) {
+      return false;
+    }
+    int lineBreak = nextLineBreak();
+    if (lineBreak < 0) {
+      if (inputEnd - inputStart > MAX_LINE_LENGTH) {
+        error = "error line too long";
+      }
+      return false;
+    }
+    if (isData(lineBreak)) {
+      body = takeDataBody(lineBreak);
+    } else {
+      line = takeLine(lineBreak);
+    }
+    return true;
+  }
+
+  /**
+   * @return true while a data line is spilled, the bytes received next are written to its file by {@link #append}
+   */
+  boolean isSpilling() {
+    return spilling != null;
+  }
+
+  /**
+   * @return true if the next request is a buffered data line longer than the spill threshold, which
+   *         {@link #spillBuffered()} or {@link #next()} write to a file
+   */
+  boolean hasBufferedSpill() {
+    if (spill == null || spilling != null || spilled != null || error != null || !startsWithData(inputEnd)) {
+      return false;
+    }
+    int lineBreak = nextLineBreak();
+    if (lineBreak < 0) {
+      return inputEnd - inputStart > spill.getThreshold();
+    }
+    return lineBreak - inputStart - DATA.length > spill.getThreshold();
+  }
+
+  /**
+   * Writes a buffered data line longer than the spill threshold to a file, so a front end can do the file I/O on
+   * another thread than {@link #next()}. A complete line becomes the next request, the received part of an
+   * incomplete one is continued by {@link #append}.
+   *
+   * @throws IOException if the body cannot be written
+   */
+  void spillBuffered() throws IOException {
+    if (!hasBufferedSpill()) {
+      return;
+    }
+    int lineBreak = nextLineBreak();
+    int start = inputStart + DATA.length;
+    //the body starts after the whitespace following the command, as a body kept in memory
+    while (start < inputEnd && DmtpParser.isWhitespace(input[start])) {
+      start++;
+    }
+    if (lineBreak < 0) {
+      int end = inputEnd;
+      pendingCarriageReturn = end > start && input[end - 1] == '\r';
+      spilling = spill.create();
+      spilling.write(input, start, pendingCarriageReturn ? end - 1 - start : end - start);
+      clear();
+      return;
+    }
+    //the last read completed the line before it was spilled
+    BodySpill.Writer writer = spill.create();
+    try {
+      writer.write(input, start, lineEnd(lineBreak) - start);
+    } catch (IOException e) {
+      writer.abort();
+      throw e;
+    }
+    consume(lineBreak);
+    spilled = writer.finish();
+  }
+
+  /**
+   * @return the line taken by {@link #next()}, null if it was a data line
+   */
+  String line() {
+    return line;
+  }
+
+  /**
+   * Hands the body of the data line taken by {@link #next()} to the request handler
+   *
+   * @return the response of the handler
+   */
+  String handleData(DmtpRequestHandler requestHandler) {
+    return body != null ? requestHandler.handleData(body) : requestHandler.handleData(bodyFile);
+  }
+
+  /**
+   * @return the error response if the client sent a line that is too long, the connection has to be closed then
+   */
+  String error() {
+    return error;
+  }
+
+  /**
+   * @return the spilled body that was not taken, to be deleted by the caller
+   */
+  DataFile close() {
+    if (spilling != null) {
+      spilling.abort();
+      spilling = null;
+      pendingCarriageReturn = false;
+    }
+    DataFile untaken = spilled;
+    spilled = null;
+    return untaken;
+  }
+
+  private void spill(ByteBuffer data) throws IOException {
+    int start = data.position();
+    int end = data.limit();
+    int lineBreak = start;
+    while (lineBreak < end && data.get(lineBreak) != '\n') {
+      lineBreak++;
+    }
+    byte[] chunk;
+    int offset;
+    if (data.hasArray()) {
+      chunk = data.array();
+      offset = data.arrayOffset() + start;
+    } else {
+      chunk = new byte[lineBreak - start];
+      data.get(chunk);
+      data.position(start);
+      offset = 0;
+    }
+    if (pendingCarriageReturn && lineBreak > start) {
+      //the '\r' of the last read was not the end of the line
+      spilling.write(CARRIAGE_RETURN, 0, 1);
+    }
+    //a '\r' in front of the line break is dropped, a '\r' at the end of this read is held back until the next one
+    int contentEnd = lineBreak;
+    pendingCarriageReturn = pendingCarriageReturn && start == end;
+    if (lineBreak > start && chunk[offset + lineBreak - start - 1] == '\r') {
+      contentEnd--;
+      pendingCarriageReturn = lineBreak == end;
+    }
+    spilling.write(chunk, offset, contentEnd - start);
+    if (spilling.size() > spill.getMaxBytes()) {
+      spilling.abort();
+      spilling = null;
+      pendingCarriageReturn = false;
+      error = "error message too large";
+      return;
+    }
+    if (lineBreak == end) {
+      data.position(end);
+      return;
+    }
+    data.position(lineBreak + 1);
+    spilled = spilling.finish();
+    spilling = null;
+  }
+
+  /**
+   * @return the index of the first buffered line break, -1 if there is none
+   */
+  private int nextLineBreak() {
+    for (; scanned < inputEnd; scanned++) {
+      if (input[scanned] == '\n') {
+        return scanned;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if the line ending at the line break is a data request with an argument
+   */
+  private boolean isData(int lineBreak) {
+    return startsWithData(lineBreak);
+  }
+
+  /**
+   * @return true if the buffered bytes up to the end index start with {@code data }
+   */
+  private boolean startsWithData(int end) {
+    if (end - inputStart < DATA.length) {
+      return false;
+    }
+    for (int i = 0; i < DATA.length; i++) {
+      if (input[inputStart + i] != DATA[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String takeLine(int lineBreak) {
+    String taken = new String(input, inputStart, lineEnd(lineBreak) - inputStart, StandardCharsets.UTF_8);
+    consume(lineBreak);
+    return taken;
+  }
+
+  /**
+   * @return the argument of the data line ending at the line break without surrounding whitespace
+   */
+  private byte[] takeDataBody(int lineBreak) {
+    int start = inputStart + DATA.length;
+    int end = lineEnd(lineBreak);
+    while (start < end && DmtpParser.isWhitespace(input[start])) {
+      start++;
+    }
+    while (end > start && DmtpParser.isWhitespace(input[end - 1])) {
+      end--;
+    }
+    byte[] taken = Arrays.copyOfRange(input, start, end);
+    consume(lineBreak);
+    return taken;
+  }
+
+  private int lineEnd(int lineBreak) {
+    return lineBreak > inputStart && input[lineBreak - 1] == '\r' ? lineBreak - 1 : lineBreak;
+  }
+
+  /**
+   * Drops the line ending at the line break, the bytes behind it stay in place until the buffer needs the room
+   */
+  private void consume(int lineBreak) {
+    inputStart = lineBreak + 1;
+    scanned = inputStart;
+    if (inputStart == inputEnd) {
+      clear();
+    }
+  }
+
+  private void clear() {
+    inputStart = 0;
+    inputEnd = 0;
+    scanned = 0;
+    if (input != null && input.length > RETAINED_CAPACITY) {
+      input = null;
+    }
+  }
+}
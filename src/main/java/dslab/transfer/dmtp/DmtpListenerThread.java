@@ -1,14 +1,18 @@
 package dslab.transfer.dmtp;
 
 import dslab.mailbox.ClientCommunicator;
-import dslab.util.Config;
+import dslab.transfer.MessageDistributer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the Thread which listens for new DMTP connections,
@@ -17,18 +21,20 @@ import java.util.concurrent.Executors;
  * <p>
  * This Threads Lifespan is as long as the Applications Lifespan
  */
-public class DmtpListenerThread extends Thread {
+public class DmtpListenerThread extends Thread implements IDmtpFrontEnd {
 
 
   private final ServerSocket serverSocket;
   private final ExecutorService executor = Executors.newCachedThreadPool();
-  private final Config transferConfig;
+  private final MessageDistributer messageDistributer;
+  //clients whose session did not end yet
+  private final Set<ClientCommunicator> sessions = ConcurrentHashMap.newKeySet();
   private final Log LOG = LogFactory.getLog(DmtpListenerThread.class);
   private boolean stopped = false;
 
-  public DmtpListenerThread(ServerSocket serverSocket, Config transferConfig) {
+  public DmtpListenerThread(ServerSocket serverSocket, MessageDistributer messageDistributer) {
     this.serverSocket = serverSocket;
-    this.transferConfig = transferConfig;
+    this.messageDistributer = messageDistributer;
     Thread.currentThread().setName("DmtpListenerThread");
   }
 
@@ -38,14 +44,53 @@ public class DmtpListenerThread extends Thread {
       if (!communicator.establishConnection()) {
         break;
       }
-      executor.execute(new DmtpCommunicationThread(communicator, transferConfig));
+      DmtpCommunicationThread session = new DmtpCommunicationThread(communicator, messageDistributer, System.nanoTime());
+      sessions.add(communicator);
+      try {
+        executor.execute(() -> {
+          try {
+            session.run();
+          } finally {
+            sessions.remove(communicator);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        //accepted while the server was drained
+        sessions.remove(communicator);
+        communicator.close();
+      }
     }
-    executor.shutdownNow();
+    //running sessions are ended by stopThread or drain
+    executor.shutdown();
   }
 
+  @Override
   public void stopThread() {
     close();
     this.stopped = true;
+    disconnectAll();
+  }
+
+  @Override
+  public int drain(long timeoutMs) throws InterruptedException {
+    close();
+    this.stopped = true;
+    executor.shutdown();
+    if (executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+      return 0;
+    }
+    return disconnectAll();
+  }
+
+  private int disconnectAll() {
+    int disconnected = 0;
+    for (ClientCommunicator communicator : sessions) {
+      //a blocked readLine returns null once the socket is closed and the session ends
+      communicator.close();
+      disconnected++;
+    }
+    executor.shutdownNow();
+    return disconnected;
   }
 
 
@@ -1,131 +1,368 @@
 package dslab.transfer.dmtp;
 
 import dslab.transfer.MessageDistributer;
+import dslab.transfer.metrics.TransferMetrics;
+import dslab.util.datastructures.DataFile;
 import dslab.util.datastructures.Email;
+import dslab.util.dmtp.DmtpCommand;
+import dslab.util.dmtp.DmtpParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import static dslab.util.Util.decode;
-import static dslab.util.Util.encode;
 
 /**
  * handles all DMTP requests, a request being one command sent from a Client,
  * for Transfer Server and provides the appropriate response(s)
  * <p>
  * It also forwards the received messages to the {@link MessageDistributer  }
+ * <p>
+ * Bulk senders can switch to batch mode with {@code batch <n>}, answered by {@code ok <n>}. The client then sends
+ * n messages, each of them as {@code from}, {@code to}, {@code subject}, {@code data} and optionally {@code hash}
+ * lines ended by {@code send}, without waiting for responses. After the n-th {@code send} the whole batch is handed
+ * to the {@link MessageDistributer} at once and the client gets one status line per message:
+ * {@code <number> ok} or {@code <number> error <reason>}. Afterwards the connection is back in normal mode.
+ * <p>
+ * Every {@code send} takes a token of the sender's bucket in the {@link dslab.transfer.SenderRateLimiter}, a sender
+ * above its rate gets {@value #THROTTLED} and may send the message again later.
+ * <p>
+ * Large bodies arrive spilled to a file of the {@link dslab.transfer.spool.BodySpill}. Such a file belongs to the
+ * handler until its message was handed to the {@link MessageDistributer}, the handler deletes it if the message is
+ * not sent.
  */
-public class DmtpRequestHandler extends Thread {
+public class DmtpRequestHandler {
 
   private final MessageDistributer messageDistributer;
   private final Log LOG = LogFactory.getLog(DmtpRequestHandler.class);
-  private Email receivedEmail = new Email();
+  private static final int MAX_BATCH_SIZE = 1000;
+  private static final String THROTTLED = "error throttled, try again later";
+  private final DmtpParser parser = new DmtpParser();
+  private Email.Builder receivedEmail = new Email.Builder();
   private boolean transferBegan = false;
+  //batch mode: number of messages still expected, the complete messages and one status per message
+  private int batchRemaining = 0;
+  private List<Email> batch;
+  private List<String> batchStatus;
+  //first error of the current message in the batch
+  private String messageError;
 
   public DmtpRequestHandler(MessageDistributer messageDistributer) {
     this.messageDistributer = messageDistributer;
-    Thread.currentThread().setName("DmtpRequestHandlerThread");
   }
 
+  /**
+   * handles one request
+   *
+   * @param request request to handle
+   * @return the response, null if the request is part of a batch and not answered by itself
+   */
   public String handleRequest(String request) {
-    switch (request.split(" ")[0]) {
-      case "begin":
-        return parseBegin(request);
-      case "to":
-        return parseTo(request);
-      case "from":
-        return parseFrom(request);
-      case "subject":
-        return parseSubject(request);
-      case "data":
-        return parseData(request);
-      case "hash":
-        return parseHash(request);
-      case "send":
+    long start = System.nanoTime();
+    try {
+      return dispatch(request);
+    } finally {
+      messageDistributer.getMetrics().record(TransferMetrics.Stage.REQUEST, start);
+    }
+  }
+
+  /**
+   * handles a {@code data} request whose body was already split off the line, so the body is kept as the UTF-8
+   * bytes it was received as and relayed to the mailbox servers without decoding it
+   *
+   * @param body the argument of the data line without surrounding whitespace
+   * @return the response, null if the request is part of a batch and not answered by itself
+   */
+  public String handleData(byte[] body) {
+    long start = System.nanoTime();
+    try {
+      String response = storeData(body, null);
+      return batchRemaining > 0 ? batchResponse(response) : response;
+    } finally {
+      messageDistributer.getMetrics().record(TransferMetrics.Stage.REQUEST, start);
+    }
+  }
+
+  /**
+   * handles a {@code data} request whose body was spilled to a file while it was received
+   *
+   * @param body the file holding the argument of the data line, deleted if the message is not sent
+   * @return the response, null if the request is part of a batch and not answered by itself
+   */
+  public String handleData(DataFile body) {
+    long start = System.nanoTime();
+    try {
+      String response = storeData(null, body);
+      return batchRemaining > 0 ? batchResponse(response) : response;
+    } finally {
+      messageDistributer.getMetrics().record(TransferMetrics.Stage.REQUEST, start);
+    }
+  }
+
+  /**
+   * Ends the session: deletes the spilled bodies of messages that were not sent
+   */
+  public void close() {
+    discardBody(receivedEmail.getDataFile());
+    if (batch != null) {
+      batch.forEach(email -> discardBody(email.getDataFile()));
+    }
+  }
+
+  private String dispatch(String request) {
+    DmtpCommand command = parser.parse(request);
+    if (batchRemaining > 0) {
+      return handleBatchRequest(command);
+    }
+    switch (command) {
+      case BEGIN:
+        return parseBegin();
+      case TO:
+        return parseTo();
+      case FROM:
+        return parseFrom();
+      case SUBJECT:
+        return parseSubject();
+      case DATA:
+        return parseData();
+      case HASH:
+        return parseHash();
+      case SEND:
         return parseSend();
+      case BATCH:
+        return parseBatch();
       default:
         return "error invalid Request";
     }
   }
 
-  private String parseHash(String request) {
+  private String parseBatch() {
+    if (transferBegan || parser.argumentCount() != 1) {
+      return "error invalid request";
+    }
+    int size;
+    try {
+      size = Integer.parseInt(parser.argument());
+    } catch (NumberFormatException e) {
+      return "error invalid request";
+    }
+    if (size < 1 || size > MAX_BATCH_SIZE) {
+      return "error batch size must be between 1 and " + MAX_BATCH_SIZE;
+    }
+    batchRemaining = size;
+    batch = new ArrayList<>(size);
+    batchStatus = new ArrayList<>(size);
+    messageError = null;
+    receivedEmail = new Email.Builder();
+    transferBegan = true;
+    return "ok " + size;
+  }
+
+  private String handleBatchRequest(DmtpCommand command) {
+    String response;
+    switch (command) {
+      case TO:
+        response = parseTo();
+        break;
+      case FROM:
+        response = parseFrom();
+        break;
+      case SUBJECT:
+        response = parseSubject();
+        break;
+      case DATA:
+        response = parseData();
+        break;
+      case HASH:
+        response = parseHash();
+        break;
+      case SEND:
+        return endBatchMessage();
+      default:
+        response = "error invalid request";
+    }
+    return batchResponse(response);
+  }
+
+  //inside a batch only the first error of a message is kept, it is reported at the end of the batch
+  private String batchResponse(String response) {
+    if (!response.startsWith("ok") && messageError == null) {
+      messageError = response;
+    }
+    return null;
+  }
+
+  private String endBatchMessage() {
+    if (messageError == null && !receivedEmail.isComplete()) {
+      messageError = "error some attributes of email not set";
+    }
+    if (messageError == null && !messageDistributer.getRateLimiter().tryAcquire(receivedEmail.getFrom())) {
+      messageError = THROTTLED;
+    }
+    if (messageError == null) {
+      batch.add(receivedEmail.build());
+      //decided when the batch is distributed
+      batchStatus.add(null);
+    } else {
+      batchStatus.add(messageError);
+      discardBody(receivedEmail.getDataFile());
+    }
+    receivedEmail = new Email.Builder();
+    messageError = null;
+    if (--batchRemaining > 0) {
+      return null;
+    }
+    transferBegan = false;
+    return submitBatch();
+  }
+
+  private String submitBatch() {
+    boolean[] accepted = null;
+    String failure = "error could not store message";
+    try {
+      accepted = messageDistributer.distributeAll(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = "error interrupted";
+    } catch (IOException e) {
+      LOG.error("Could not spool batch: " + e.getMessage());
+    }
+    StringBuilder response = new StringBuilder();
+    int next = 0;
+    for (int i = 0; i < batchStatus.size(); i++) {
+      String status = batchStatus.get(i);
+      if (status == null) {
+        boolean sent = accepted != null && accepted[next];
+        status = sent ? "ok" : accepted == null ? failure : "error busy";
+        if (!sent) {
+          //a batch is not kept open like a single transaction
+          discardBody(batch.get(next).getDataFile());
+          messageDistributer.getRateLimiter().release(batch.get(next).getFrom());
+        }
+        next++;
+      }
+      if (i > 0) {
+        response.append('\n');
+      }
+      response.append(i + 1).append(' ').append(status);
+    }
+    batch = null;
+    batchStatus = null;
+    return response.toString();
+  }
+
+  private String parseHash() {
     if (!transferBegan) {
       return "error invalid request (1)";
     }
 
-    String[] args = request.split(" ");
-    if (args.length != 2) {
+    if (parser.argumentCount() != 1) {
       return "error invalid request (2)";
     }
-    String hash = args[1];
-    byte[] bytes = decode(hash);
+    String hash = parser.argument();
+    byte[] bytes;
+    try {
+      bytes = decode(hash);
+    } catch (IllegalArgumentException e) {
+      return "error invalid request (3)";
+    }
 
     // "The generated hash is a 32 byte value"
     if (bytes.length != 32) {
       return "error invalid request (3)";
     }
 
-    receivedEmail.setHash(hash);
+    receivedEmail.hash(hash);
     return "ok";
   }
 
-  private String parseTo(String request) {
+  private String parseTo() {
     if (!transferBegan) {
       return "error invalid request";
     }
-    //remove "to"
-    request = request.substring(3);
-    var recipients = Arrays.stream(request.split(","))
-            .map(String::trim)
-            .collect(Collectors.toList());
-
-    receivedEmail.setTo(request);
-
-    List<String> domainList = new ArrayList<>();
-    for (String recipient : recipients) {
-      domainList.add(recipient.split("@")[1]);
+    int recipients = 0;
+    //the recipients are grouped by domain here, so every mailbox server only gets its own recipients
+    Map<String, StringBuilder> byDomain = new LinkedHashMap<>();
+    while (parser.nextAddress()) {
+      if (!parser.isAddress()) {
+        return "error invalid Email";
+      }
+      recipients++;
+      StringBuilder domainRecipients = byDomain.computeIfAbsent(parser.domain(), d -> new StringBuilder());
+      if (domainRecipients.length() > 0) {
+        domainRecipients.append(',');
+      }
+      domainRecipients.append(parser.address());
+    }
+    if (recipients == 0) {
+      return "error no recipient";
     }
-    receivedEmail.setDomains(domainList.stream().distinct().collect(Collectors.toList()));
-    return "ok " + domainList.size();
+    Map<String, String> recipientsByDomain = new LinkedHashMap<>();
+    byDomain.forEach((domain, domainRecipients) -> recipientsByDomain.put(domain, domainRecipients.toString()));
+    receivedEmail.to(parser.rawArgument());
+    receivedEmail.recipientsByDomain(recipientsByDomain);
+    return "ok " + recipients;
   }
 
-  private String parseFrom(String request) {
+  private String parseFrom() {
     if (!transferBegan) {
       return "error invalid request";
     }
-    var splitRequest = request.split(" ");
-    if (splitRequest.length > 2) {
+    if (parser.argumentCount() > 1) {
       return "error only one sender possible";
     }
-    var email = splitRequest[1];
-    if (!email.matches("(.*)@(.*)")) {
+    if (!parser.isSingleAddress()) {
       return "error invalid Email";
     }
-    receivedEmail.setFrom(email);
+    receivedEmail.from(parser.argument());
     return "ok";
 
   }
 
-  private String parseSubject(String request) {
+  private String parseSubject() {
+    if (!transferBegan) {
+      return "error invalid request";
+    }
+    receivedEmail.subject(parser.argument());
+    return "ok";
+  }
+
+  private String parseData() {
     if (!transferBegan) {
       return "error invalid request";
     }
-    receivedEmail.setSubject(request.substring(7).trim());
+    discardBody(receivedEmail.getDataFile());
+    receivedEmail.data(parser.argument());
     return "ok";
+
   }
 
-  private String parseData(String request) {
+  private String storeData(byte[] body, DataFile file) {
     if (!transferBegan) {
+      if (file != null) {
+        messageDistributer.getBodySpill().delete(file);
+      }
       return "error invalid request";
     }
-    receivedEmail.setData(request.substring(4).trim());
+    //a body sent again replaces the previous one
+    discardBody(receivedEmail.getDataFile());
+    if (file != null) {
+      receivedEmail.dataFile(file);
+    } else {
+      receivedEmail.dataBytes(body);
+    }
     return "ok";
+  }
 
+  private void discardBody(DataFile file) {
+    if (file != null) {
+      messageDistributer.getBodySpill().delete(file);
+    }
   }
 
   private String parseSend() {
@@ -133,29 +370,39 @@ public class DmtpRequestHandler extends Thread {
     if (!transferBegan) {
       return "error";
     }
-    if (!allEmailAttributesSet()) {
+    if (!receivedEmail.isComplete()) {
       return "error";
     }
+    if (!messageDistributer.getRateLimiter().tryAcquire(receivedEmail.getFrom())) {
+      //like busy, the transaction stays open
+      return THROTTLED;
+    }
+    Email email = receivedEmail.build();
+    String failure;
     try {
-      LOG.info("call MessageDistributer: " + receivedEmail.toString());
-      messageDistributer.distribute(receivedEmail);
+      LOG.info("call MessageDistributer: " + email);
+      if (messageDistributer.distribute(email)) {
+        this.transferBegan = false;
+        this.receivedEmail = new Email.Builder();
+        return "ok";
+      }
+      //the transaction stays open, the client may send it again later
+      failure = "error busy";
     } catch (InterruptedException e) {
-      e.printStackTrace();
+      //the server shuts down, the client may send the open transaction to another one
+      Thread.currentThread().interrupt();
+      failure = "error interrupted";
+    } catch (IOException e) {
+      LOG.error("Could not spool message: " + e.getMessage());
+      failure = "error could not store message";
     }
-    this.transferBegan = false;
-    this.receivedEmail = new Email();
-    return "ok";
-  }
-
-  private boolean allEmailAttributesSet() {
-    return receivedEmail.getFrom() != null &&
-            receivedEmail.getTo() != null &&
-            receivedEmail.getSubject() != null &&
-            receivedEmail.getData() != null;
+    //the message was not accepted, so it does not count against the rate of its sender
+    messageDistributer.getRateLimiter().release(email.getFrom());
+    return failure;
   }
 
-  private String parseBegin(String request) {
-    if (request.split(" ").length > 1) {
+  private String parseBegin() {
+    if (parser.argumentCount() > 0) {
       return "error invalid request";
     }
     if (transferBegan) {
@@ -0,0 +1,29 @@
+package dslab.transfer.dmtp;
+
+/**
+ * Accepts DMTP client connections of the Transfer Server and runs the {@link DmtpRequestHandler} for each of them.
+ * The implementation is selected by {@code dmtp.frontend}: {@code blocking} ({@link DmtpListenerThread}, one thread
+ * per client) or {@code nio} ({@link NioDmtpServer}, a few selector threads for all clients).
+ */
+public interface IDmtpFrontEnd {
+
+  /**
+   * Starts accepting connections, returns immediately
+   */
+  void start();
+
+  /**
+   * Stops accepting connections and closes the server socket, connected clients are disconnected
+   */
+  void stopThread();
+
+  /**
+   * Stops accepting connections and waits for the connected clients to quit, the clients still connected after the
+   * timeout are disconnected as by {@link #stopThread()}
+   *
+   * @param timeoutMs maximum time to wait in milliseconds
+   * @return the number of clients which had to be disconnected
+   * @throws InterruptedException if the Thread gets interrupted during wait
+   */
+  int drain(long timeoutMs) throws InterruptedException;
+}
@@ -0,0 +1,459 @@
+package dslab.transfer.dmtp;
+
+import dslab.transfer.MessageDistributer;
+import dslab.transfer.metrics.TransferMetrics;
+import dslab.util.datastructures.DataFile;
+import dslab.util.Config;
+import dslab.util.dmtp.DmtpCommand;
+import dslab.util.dmtp.DmtpParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking DMTP front end of the Transfer Server.
+ * <p>
+ * One acceptor thread accepts the clients and assigns them round robin to {@code dmtp.nio.selectors} selector
+ * threads, which read the requests of all their clients, run them through the client's {@link DmtpRequestHandler}
+ * and write the responses. An idle client therefore costs a few hundred bytes instead of a thread.
+ * <p>
+ * Only {@code send} and writing a large body to disk may block, they are executed by one of
+ * {@code dmtp.nio.handler.threads} handler threads. The client is not read from until they are done, so the requests
+ * of a client are still handled in order.
+ * <p>
+ * The body of a {@code data} line is not decoded: it is copied out of the receive buffer as the UTF-8 bytes it
+ * arrived as and written to the mailbox servers from that array. A large body is spilled to disk while it is received,
+ * see {@link DmtpInput}: every chunk of it is copied out of the receive buffer and written to the file by a handler
+ * thread, so a slow disk never stalls the other clients of a selector thread.
+ */
+public class NioDmtpServer extends Thread implements IDmtpFrontEnd {
+
+  private static final Log LOG = LogFactory.getLog(NioDmtpServer.class);
+  private static final byte[] GREETING = "ok DMTP2.0\n".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] BYE = "ok bye\n".getBytes(StandardCharsets.UTF_8);
+  private final ServerSocketChannel serverChannel;
+  private final Selector acceptSelector;
+  private final SelectorLoop[] loops;
+  private final ExecutorService handlers;
+  private final MessageDistributer messageDistributer;
+  //connected clients of all selector loops
+  private final AtomicInteger sessions = new AtomicInteger();
+  private volatile boolean accepting = true;
+  private volatile boolean stopped = false;
+
+  public NioDmtpServer(int port, MessageDistributer messageDistributer, Config transferConfig) throws IOException {
+    super("dmtpAcceptor");
+    this.messageDistributer = messageDistributer;
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port), transferConfig.getInt("dmtp.nio.backlog", 1024));
+    serverChannel.configureBlocking(false);
+    this.acceptSelector = Selector.open();
+    serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+    AtomicInteger handlerIndex = new AtomicInteger();
+    this.handlers = Executors.newFixedThreadPool(Math.max(1, transferConfig.getInt("dmtp.nio.handler.threads", 4)),
+            r -> new Thread(r, "dmtpHandler-" + handlerIndex.incrementAndGet()));
+    this.loops = new SelectorLoop[Math.max(1, transferConfig.getInt("dmtp.nio.selectors", 2))];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new SelectorLoop("dmtpSelector-" + (i + 1));
+    }
+  }
+
+  @Override
+  public void run() {
+    for (SelectorLoop loop : loops) {
+      loop.start();
+    }
+    int next = 0;
+    try {
+      while (accepting) {
+        acceptSelector.select();
+        acceptSelector.selectedKeys().clear();
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+          loops[next].register(channel);
+          next = (next + 1) % loops.length;
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (accepting) {
+        LOG.error("Error while accepting DMTP connections: " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void stopThread() {
+    stopAccepting();
+    stopped = true;
+    for (SelectorLoop loop : loops) {
+      loop.shutdown();
+    }
+    handlers.shutdownNow();
+  }
+
+  @Override
+  public int drain(long timeoutMs) throws InterruptedException {
+    stopAccepting();
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (sessions.get() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    int disconnected = sessions.get();
+    stopThread();
+    return disconnected;
+  }
+
+  private void stopAccepting() {
+    accepting = false;
+    try {
+      serverChannel.close();
+      acceptSelector.close();
+    } catch (IOException e) {
+      LOG.error("Error while closing server socket: " + e.getMessage());
+    }
+  }
+
+  /**
+   * State of one client connection, only accessed by the thread of its {@link SelectorLoop}
+   */
+  private class Connection {
+    private final SocketChannel channel;
+    private final DmtpRequestHandler requestHandler = new DmtpRequestHandler(messageDistributer);
+    private final DmtpInput input = new DmtpInput(messageDistributer.getBodySpill());
+    //classifies the requests, the request handler parses them again with its own parser
+    private final DmtpParser parser = new DmtpParser();
+    private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+    //a send or a spilled body is handled by a handler thread, the input is only accessed by that thread meanwhile
+    private boolean busy = false;
+    private boolean closeAfterWrite = false;
+
+    private Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Deletes the spilled bodies of the messages the client did not send
+     */
+    private void release() {
+      DataFile untaken = input.close();
+      if (untaken != null) {
+        messageDistributer.getBodySpill().delete(untaken);
+      }
+      requestHandler.close();
+    }
+  }
+
+  /**
+   * A selector thread serving a share of the clients
+   */
+  private class SelectorLoop extends Thread {
+    private final Selector selector;
+    //work handed over by other threads, executed by the loop
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    private SelectorLoop(String name) throws IOException {
+      super(name);
+      this.selector = Selector.open();
+    }
+
+    private void register(SocketChannel channel) {
+      long acceptedAt = System.nanoTime();
+      execute(() -> {
+        try {
+          channel.configureBlocking(false);
+          Connection connection = new Connection(channel);
+          channel.register(selector, SelectionKey.OP_READ, connection);
+          sessions.incrementAndGet();
+          write(channel.keyFor(selector), ByteBuffer.wrap(GREETING));
+          messageDistributer.getMetrics().record(TransferMetrics.Stage.ACCEPT, acceptedAt);
+        } catch (IOException e) {
+          SelectionKey key = channel.keyFor(selector);
+          if (key != null) {
+            close(key);
+          } else {
+            closeQuietly(channel);
+          }
+        }
+      });
+    }
+
+    private void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          selector.select();
+          Runnable task;
+          while ((task = tasks.poll()) != null) {
+            task.run();
+          }
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+              continue;
+            }
+            try {
+              if (key.isReadable()) {
+                read(key);
+              }
+              if (key.isValid() && key.isWritable()) {
+                flush(key);
+              }
+            } catch (IOException e) {
+              close(key);
+            }
+          }
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        if (!stopped) {
+          LOG.error("Selector loop failed: " + e.getMessage());
+        }
+      }
+      for (SelectionKey key : selector.keys()) {
+        Connection connection = (Connection) key.attachment();
+        if (connection != null && !connection.busy) {
+          connection.release();
+        }
+        closeQuietly(key.channel());
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        LOG.error(e.getMessage());
+      }
+    }
+
+    private void shutdown() {
+      selector.wakeup();
+      try {
+        join(TimeUnit.SECONDS.toMillis(1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+      Connection connection = (Connection) key.attachment();
+      readBuffer.clear();
+      int read = connection.channel.read(readBuffer);
+      if (read < 0) {
+        close(key);
+        return;
+      }
+      readBuffer.flip();
+      if (connection.input.isSpilling()) {
+        //the read buffer is reused by the next read
+        ByteBuffer received = ByteBuffer.allocate(readBuffer.remaining());
+        received.put(readBuffer).flip();
+        spill(key, received);
+        return;
+      }
+      connection.input.append(readBuffer);
+      process(key);
+    }
+
+    /**
+     * Lets a handler thread write the buffered and received part of a large body to its file
+     *
+     * @param received bytes to append after the buffered ones, null if only buffered bytes are spilled
+     */
+    private void spill(SelectionKey key, ByteBuffer received) {
+      Connection connection = (Connection) key.attachment();
+      connection.busy = true;
+      updateInterest(key);
+      handlers.execute(() -> {
+        IOException failure = null;
+        try {
+          connection.input.spillBuffered();
+          if (received != null) {
+            connection.input.append(received);
+          }
+        } catch (IOException e) {
+          failure = e;
+        }
+        IOException result = failure;
+        execute(() -> completeSpill(key, result));
+      });
+    }
+
+    private void completeSpill(SelectionKey key, IOException failure) {
+      Connection connection = (Connection) key.attachment();
+      connection.busy = false;
+      if (!key.isValid()) {
+        //the client disconnected during the spill
+        connection.release();
+        return;
+      }
+      if (failure != null) {
+        LOG.error("Could not spill a message body: " + failure.getMessage());
+        close(key);
+        return;
+      }
+      try {
+        process(key);
+      } catch (IOException e) {
+        close(key);
+      }
+    }
+
+    /**
+     * Handles the buffered requests of a client until a send has to be handed to a handler thread
+     */
+    private void process(SelectionKey key) throws IOException {
+      Connection connection = (Connection) key.attachment();
+      while (!connection.busy && !connection.closeAfterWrite) {
+        if (connection.input.hasBufferedSpill()) {
+          spill(key, null);
+          return;
+        }
+        if (!connection.input.next()) {
+          break;
+        }
+        String request = connection.input.line();
+        if (request == null) {
+          //the body is the bulk of a message, it stays in bytes all the way to the mailbox server
+          respond(key, connection.input.handleData(connection.requestHandler));
+          continue;
+        }
+        if (Objects.equals(request, "quit")) {
+          connection.closeAfterWrite = true;
+          write(key, ByteBuffer.wrap(BYE));
+        } else if (connection.parser.parse(request) == DmtpCommand.SEND) {
+          connection.busy = true;
+          String sendRequest = request;
+          handlers.execute(() -> {
+            String response;
+            try {
+              response = connection.requestHandler.handleRequest(sendRequest);
+            } catch (RuntimeException e) {
+              LOG.error("Error while handling send: " + e.getMessage());
+              response = "error";
+            }
+            String result = response;
+            execute(() -> completeSend(key, result));
+          });
+        } else {
+          respond(key, connection.requestHandler.handleRequest(request));
+        }
+      }
+      if (connection.input.error() != null && !connection.closeAfterWrite) {
+        connection.closeAfterWrite = true;
+        respond(key, connection.input.error());
+        return;
+      }
+      updateInterest(key);
+    }
+
+    private void completeSend(SelectionKey key, String response) {
+      Connection connection = (Connection) key.attachment();
+      connection.busy = false;
+      if (!key.isValid()) {
+        //the client disconnected during the send
+        connection.release();
+        return;
+      }
+      try {
+        respond(key, response);
+        process(key);
+      } catch (IOException e) {
+        close(key);
+      }
+    }
+
+    private void respond(SelectionKey key, String response) throws IOException {
+      //requests inside a batch are answered together at its end
+      if (response == null) {
+        return;
+      }
+      write(key, ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void write(SelectionKey key, ByteBuffer data) throws IOException {
+      Connection connection = (Connection) key.attachment();
+      connection.writes.add(data);
+      flush(key);
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+      Connection connection = (Connection) key.attachment();
+      ByteBuffer head;
+      while ((head = connection.writes.peek()) != null) {
+        connection.channel.write(head);
+        if (head.hasRemaining()) {
+          break;
+        }
+        connection.writes.poll();
+      }
+      if (connection.writes.isEmpty() && connection.closeAfterWrite) {
+        close(key);
+        return;
+      }
+      updateInterest(key);
+    }
+
+    /**
+     * Reads only while no send is pending, waits for writability only while responses are queued
+     */
+    private void updateInterest(SelectionKey key) {
+      if (!key.isValid()) {
+        return;
+      }
+      Connection connection = (Connection) key.attachment();
+      int ops = 0;
+      if (!connection.busy && !connection.closeAfterWrite) {
+        ops |= SelectionKey.OP_READ;
+      }
+      if (!connection.writes.isEmpty()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(ops);
+    }
+
+    private void close(SelectionKey key) {
+      if (key.channel().isOpen()) {
+        sessions.decrementAndGet();
+        Connection connection = (Connection) key.attachment();
+        //a running send still uses the message, it is released once the send completed
+        if (connection != null && !connection.busy) {
+          connection.release();
+        }
+      }
+      key.cancel();
+      closeQuietly(key.channel());
+    }
+  }
+
+  private static void closeQuietly(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.debug("Error while closing client channel: " + e.getMessage());
+    }
+  }
+}
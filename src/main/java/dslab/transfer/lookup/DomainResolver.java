@@ -0,0 +1,97 @@
+package dslab.transfer.lookup;
+
+import dslab.nameserver.INameserverRemote;
+import dslab.util.Config;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+/**
+ * Resolves mail domains to the address of their mailbox server by walking the nameserver hierarchy
+ * starting at the root nameserver.
+ * <p>
+ * Results are kept in a {@link ResolutionCache}, so repeated deliveries to the same domain do not cost any
+ * remote call until the entry expires. The root nameserver's remote object is looked up once and reused
+ * until a remote call fails.
+ */
+public class DomainResolver {
+
+  private static final Log LOG = LogFactory.getLog(DomainResolver.class);
+  private final String registryHost;
+  private final int registryPort;
+  private final String rootId;
+  private final ResolutionCache cache;
+  private volatile INameserverRemote root;
+
+  public DomainResolver(Config transferConfig) {
+    this.registryHost = transferConfig.getString("registry.host");
+    this.registryPort = transferConfig.getInt("registry.port");
+    this.rootId = transferConfig.getString("root_id");
+    this.cache = new ResolutionCache(
+            transferConfig.getInt("resolver.cache.ttl.ms", 60000),
+            transferConfig.getInt("resolver.cache.negative.ttl.ms", 10000),
+            transferConfig.getInt("resolver.cache.size", 1024));
+  }
+
+  /**
+   * Resolves the address of the mailbox server responsible for the given domain
+   *
+   * @param domain mail domain, e.g. earth.planet
+   * @return the address in the form host:port, or null if the domain is unknown
+   * @throws LookupException if the nameservers could not be reached, the domain may well exist
+   */
+  public String resolve(String domain) throws LookupException {
+    ResolutionCache.Resolution cached = cache.get(domain);
+    if (cached != null) {
+      return cached.getAddress();
+    }
+    var split = domain.split("\\.");
+    String mailboxDomain = split[0];
+    try {
+      INameserverRemote remote = getRoot();
+      for (int i = split.length - 1; i >= 1; i--) {
+        if (remote == null) break;
+        remote = remote.getNameserver(split[i]);
+      }
+      String address = remote == null ? null : remote.lookup(mailboxDomain);
+      if (address == null) {
+        cache.putNegative(domain);
+      } else {
+        cache.put(domain, address);
+      }
+      return address;
+    } catch (RemoteException | NotBoundException e) {
+      //errors are not cached, the next lookup should try again
+      LOG.error("Could not resolve " + domain + ": " + e.getMessage());
+      root = null;
+      throw new LookupException("could not resolve " + domain + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Removes the given domain from the cache, e.g. because its mailbox server was not reachable
+   *
+   * @param domain domain to forget
+   */
+  public void invalidate(String domain) {
+    cache.invalidate(domain);
+  }
+
+  public ResolutionCache getCache() {
+    return cache;
+  }
+
+  private INameserverRemote getRoot() throws RemoteException, NotBoundException {
+    INameserverRemote current = root;
+    if (current == null) {
+      Registry registry = LocateRegistry.getRegistry(registryHost, registryPort);
+      current = (INameserverRemote) registry.lookup(rootId);
+      root = current;
+    }
+    return current;
+  }
+}
@@ -0,0 +1,13 @@
+package dslab.transfer.lookup;
+
+/**
+ * Thrown if a domain could not be resolved because the nameservers are not reachable. Unlike an unknown domain this
+ * is transient, the lookup should be tried again later.
+ */
+public class LookupException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  public LookupException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,134 @@
+package dslab.transfer.lookup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of domain resolutions with a time to live per entry.
+ * <p>
+ * Resolved addresses are kept for {@code ttlMs}, domains the nameservers do not know are cached as negative
+ * entries for {@code negativeTtlMs}. If the cache exceeds {@code maxSize} entries the least recently used
+ * entry is evicted.
+ */
+public class ResolutionCache {
+
+  private final long ttlMs;
+  private final long negativeTtlMs;
+  private final int maxSize;
+  private final Map<String, Resolution> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public ResolutionCache(long ttlMs, long negativeTtlMs, int maxSize) {
+    this.ttlMs = ttlMs;
+    this.negativeTtlMs = negativeTtlMs;
+    this.maxSize = Math.max(1, maxSize);
+    //access ordered, so the eldest entry is the least recently used one
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+        if (size() > ResolutionCache.this.maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Looks up the given domain
+   *
+   * @param domain domain to look up
+   * @return the cached entry, or null if the domain is not cached or the entry expired
+   */
+  public synchronized Resolution get(String domain) {
+    Resolution entry = entries.get(domain);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    if (entry.expiresAt <= System.currentTimeMillis()) {
+      entries.remove(domain);
+      misses.increment();
+      return null;
+    }
+    if (entry.isNegative()) {
+      negativeHits.increment();
+    } else {
+      hits.increment();
+    }
+    return entry;
+  }
+
+  /**
+   * Caches a successful resolution
+   *
+   * @param domain  resolved domain
+   * @param address address of the domain's mailbox server
+   */
+  public synchronized void put(String domain, String address) {
+    if (ttlMs > 0) {
+      entries.put(domain, new Resolution(address, System.currentTimeMillis() + ttlMs));
+    }
+  }
+
+  /**
+   * Caches that the given domain is unknown to the nameservers
+   *
+   * @param domain unknown domain
+   */
+  public synchronized void putNegative(String domain) {
+    if (negativeTtlMs > 0) {
+      entries.put(domain, new Resolution(null, System.currentTimeMillis() + negativeTtlMs));
+    }
+  }
+
+  public synchronized void invalidate(String domain) {
+    entries.remove(domain);
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * A cached resolution, the address is null for unknown domains
+   */
+  public static class Resolution {
+    private final String address;
+    private final long expiresAt;
+
+    private Resolution(String address, long expiresAt) {
+      this.address = address;
+      this.expiresAt = expiresAt;
+    }
+
+    public String getAddress() {
+      return address;
+    }
+
+    public boolean isNegative() {
+      return address == null;
+    }
+  }
+}
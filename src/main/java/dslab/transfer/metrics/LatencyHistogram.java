@@ -0,0 +1,97 @@
+package dslab.transfer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds with a fixed memory footprint, in the style of an HDR histogram.
+ * <p>
+ * Values below {@code 2 * SUB_BUCKETS} get a bucket each, above that every power of two is split into
+ * {@code SUB_BUCKETS} buckets of equal width, so a recorded value is off by at most 1 / {@code SUB_BUCKETS} (about
+ * 3%). Values above {@link #MAX_VALUE} (2^41 - 1 ns, about 36.6 minutes) are counted as {@link #MAX_VALUE}.
+ * <p>
+ * {@link #record(long)} is a handful of atomic increments and never allocates. Percentiles are read from the live
+ * counters without stopping the writers, so they may lag behind concurrent recordings by a few values.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_SHIFT = 35;
+  public static final long MAX_VALUE = (2L * SUB_BUCKETS << MAX_SHIFT) - 1;
+  private static final int BUCKETS = 2 * SUB_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param nanos latency to record, negative values are counted as 0
+   */
+  public void record(long nanos) {
+    long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+    counts.incrementAndGet(indexOf(value));
+    total.incrementAndGet();
+    sum.addAndGet(value);
+    long currentMax;
+    while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+      //another thread raised the maximum, compare again
+    }
+  }
+
+  /**
+   * @param percentile percentile between 0 and 100, e.g. 99.9
+   * @return the highest value of the bucket holding the percentile, 0 if nothing was recorded
+   */
+  public long percentile(double percentile) {
+    long count = total.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public long count() {
+    return total.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * @return the mean of all recorded values, 0 if nothing was recorded
+   */
+  public long mean() {
+    long count = total.get();
+    return count == 0 ? 0 : sum.get() / count;
+  }
+
+  static int indexOf(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    //the top SUB_BUCKET_BITS + 1 bits of the value, between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+    int subBucket = (int) (value >>> shift);
+    return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket - SUB_BUCKETS;
+  }
+
+  static long highestValueOf(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+    long subBucket = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
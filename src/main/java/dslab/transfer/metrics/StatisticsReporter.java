@@ -0,0 +1,200 @@
+package dslab.transfer.metrics;
+
+import dslab.util.Config;
+import dslab.util.datastructures.MpscRingBuffer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends the usage statistics of delivered messages to the Monitoring Server.
+ * <p>
+ * Delivery workers only enqueue a record of the form {@code <host>:<port> <sender>} without blocking, a record is
+ * dropped if {@code statistics.queue.size} records are waiting already. A single reporter thread packs the records,
+ * one per line, into datagrams of at most {@code statistics.datagram.size} bytes and sends them over one
+ * {@link DatagramChannel} connected to {@code monitoring.host}:{@code monitoring.port}, which is resolved once. A
+ * datagram is sent once the next record does not fit anymore or {@code statistics.flush.ms} after its first record.
+ */
+public class StatisticsReporter {
+
+  private static final Log LOG = LogFactory.getLog(StatisticsReporter.class);
+  //fits into an ethernet frame together with the IP and UDP headers
+  private static final int DEFAULT_DATAGRAM_SIZE = 1400;
+  private static final int DEFAULT_FLUSH_MS = 50;
+  private static final int DEFAULT_QUEUE_SIZE = 8192;
+  //upper bound for a single wait, so the thread notices close() in time
+  private static final long WAIT_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private final MpscRingBuffer<String> records;
+  private final DatagramChannel channel;
+  private final ByteBuffer datagram;
+  private final long flushNanos;
+  private final Thread sender;
+  private final LongAdder sentRecords = new LongAdder();
+  private final LongAdder sentDatagrams = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private volatile boolean stopped = false;
+
+  public StatisticsReporter(Config transferConfig) {
+    this.records = new MpscRingBuffer<>(
+            Math.max(1, transferConfig.getInt("statistics.queue.size", DEFAULT_QUEUE_SIZE)));
+    this.datagram = ByteBuffer.allocate(
+            Math.max(64, transferConfig.getInt("statistics.datagram.size", DEFAULT_DATAGRAM_SIZE)));
+    this.flushNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1, transferConfig.getInt("statistics.flush.ms", DEFAULT_FLUSH_MS)));
+    InetSocketAddress monitoring = new InetSocketAddress(transferConfig.getString("monitoring.host"),
+            transferConfig.getInt("monitoring.port"));
+    try {
+      this.channel = DatagramChannel.open();
+      if (monitoring.isUnresolved()) {
+        LOG.error("Could not resolve the monitoring server " + monitoring);
+      } else {
+        channel.connect(monitoring);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open the statistics channel", e);
+    }
+    this.sender = new Thread(this::run, "statisticsReporter");
+    this.sender.setDaemon(true);
+  }
+
+  public void start() {
+    sender.start();
+  }
+
+  /**
+   * Queues the statistics of one delivery, never blocks
+   *
+   * @param server the {@code <host>:<port>} of this Transfer Server as seen by the mailbox server
+   * @param sender the sender of the delivered message
+   * @return false if the record was dropped because too many records are waiting
+   */
+  public boolean report(String server, String sender) {
+    if (!records.offer(server + " " + sender + "\n")) {
+      dropped.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of records sent so far
+   */
+  public long sentRecords() {
+    return sentRecords.sum();
+  }
+
+  /**
+   * @return the number of datagrams sent so far
+   */
+  public long sentDatagrams() {
+    return sentDatagrams.sum();
+  }
+
+  /**
+   * @return the number of records dropped because the queue was full or they could not be sent
+   */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stops the reporter thread after it sent the records queued so far and closes the channel
+   */
+  public void close() {
+    stopped = true;
+    try {
+      sender.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.debug("Error while closing the statistics channel: " + e.getMessage());
+    }
+  }
+
+  private void run() {
+    //records in the datagram being packed
+    int packed = 0;
+    long flushAt = 0;
+    try {
+      while (!stopped) {
+        long wait = Math.min(WAIT_TIMEOUT_NANOS, packed == 0 ? flushNanos : flushAt - System.nanoTime());
+        String record = wait > 0 ? records.poll(wait, TimeUnit.NANOSECONDS) : null;
+        if (record != null) {
+          packed = pack(record, packed);
+          if (packed == 1) {
+            //first record of a new datagram
+            flushAt = System.nanoTime() + flushNanos;
+          }
+        } else if (packed > 0 && System.nanoTime() - flushAt >= 0) {
+          packed = flush(packed);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    String record;
+    while ((record = records.poll()) != null) {
+      packed = pack(record, packed);
+    }
+    flush(packed);
+  }
+
+  /**
+   * Adds a record to the datagram, the datagram is sent first if the record does not fit anymore
+   *
+   * @return the number of records in the datagram afterwards
+   */
+  private int pack(String record, int packed) {
+    byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > datagram.remaining()) {
+      packed = flush(packed);
+    }
+    if (bytes.length > datagram.remaining()) {
+      LOG.error("Dropped statistics record longer than a datagram: " + record.trim());
+      dropped.increment();
+      return packed;
+    }
+    datagram.put(bytes);
+    return packed + 1;
+  }
+
+  /**
+   * Sends the packed datagram, errors are logged as the statistics are best effort
+   *
+   * @return 0, the number of records in the datagram afterwards
+   */
+  private int flush(int packed) {
+    if (packed == 0) {
+      return 0;
+    }
+    datagram.flip();
+    try {
+      if (!channel.isConnected()) {
+        throw new IOException("monitoring server unknown");
+      }
+      channel.write(datagram);
+      sentRecords.add(packed);
+      sentDatagrams.increment();
+    } catch (PortUnreachableException e) {
+      LOG.error("Monitoring server is not reachable, dropped " + packed + " statistics records");
+      dropped.add(packed);
+    } catch (IOException e) {
+      LOG.error("Could not send " + packed + " statistics records: " + e.getMessage());
+      dropped.add(packed);
+    }
+    datagram.clear();
+    return 0;
+  }
+}
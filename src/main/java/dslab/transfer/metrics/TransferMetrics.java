@@ -0,0 +1,61 @@
+package dslab.transfer.metrics;
+
+/**
+ * Latency histograms of the stages a message passes through in the Transfer Server, shown by the {@code metrics}
+ * shell command.
+ * <p>
+ * Callers take {@link System#nanoTime()} when a stage starts and pass it to {@link #record(Stage, long)} once it
+ * ended, which allocates nothing.
+ */
+public class TransferMetrics {
+
+  /**
+   * The measured stages
+   */
+  public enum Stage {
+    //from accepting a client connection until its greeting is sent
+    ACCEPT("accept"),
+    //one DMTP request line, a send includes distribute
+    REQUEST("handleRequest"),
+    //spooling and queueing of accepted messages
+    DISTRIBUTE("distribute"),
+    //lookup of the mailbox server of a domain
+    RESOLVE("getAddressOfDomain"),
+    //borrowing a connection to a mailbox server, including connecting if none is idle
+    CONNECT("connect"),
+    //writing pipelined transactions to a mailbox server and waiting for the responses
+    SEND("sendMail");
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+  public TransferMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Records the latency of a stage that just ended
+   *
+   * @param stage      the stage
+   * @param startNanos {@link System#nanoTime()} at the start of the stage
+   */
+  public void record(Stage stage, long startNanos) {
+    histograms[stage.ordinal()].record(System.nanoTime() - startNanos);
+  }
+
+  public LatencyHistogram get(Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+}
@@ -0,0 +1,197 @@
+package dslab.transfer.spool;
+
+import dslab.util.Config;
+import dslab.util.datastructures.DataFile;
+import dslab.util.datastructures.Email;
+import dslab.util.dmtp.DmtpParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Files in {@code spill.dir} holding the bodies of large messages, so the Transfer Server keeps only a
+ * {@link DataFile} handle of them on the heap.
+ * <p>
+ * A {@code data} line longer than {@code spill.threshold} bytes is streamed into a new file while it is received, a
+ * body larger than {@code spill.max.bytes} is refused. The file is written to disk before the message is spooled if
+ * {@code spool.fsync} is {@code always}, so the {@link SpoolJournal} can refer to it and a recovered message still
+ * has its body. The file is deleted once the message is delivered; files no recovered message refers to are
+ * deleted on startup.
+ */
+public class BodySpill {
+
+  private static final Log LOG = LogFactory.getLog(BodySpill.class);
+  private static final String SUFFIX = ".data";
+  private final Path directory;
+  private final int threshold;
+  private final long maxBytes;
+  private final boolean force;
+
+  public BodySpill(Config transferConfig) throws IOException {
+    String spoolDir = transferConfig.containsKey("spool.dir") ? transferConfig.getString("spool.dir") : "spool";
+    this.directory = transferConfig.containsKey("spill.dir")
+            ? Paths.get(transferConfig.getString("spill.dir")) : Paths.get(spoolDir, "bodies");
+    this.threshold = transferConfig.getInt("spill.threshold", 256 * 1024);
+    this.maxBytes = transferConfig.getInt("spill.max.bytes", 64 * 1024 * 1024);
+    this.force = !transferConfig.containsKey("spool.fsync")
+            || transferConfig.getString("spool.fsync").equalsIgnoreCase("always");
+    Files.createDirectories(directory);
+  }
+
+  /**
+   * @return bodies longer than this are spilled, 0 if spilling is disabled
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @return the maximum size of a spilled body in bytes
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return a writer for the body of a new message
+   * @throws IOException if the file cannot be created
+   */
+  public Writer create() throws IOException {
+    return new Writer(Files.createTempFile(directory, "body-", SUFFIX));
+  }
+
+  /**
+   * Deletes the file of a delivered message
+   *
+   * @param dataFile the handle of the body
+   */
+  public void delete(DataFile dataFile) {
+    try {
+      Files.deleteIfExists(dataFile.getPath());
+    } catch (IOException e) {
+      LOG.error("Could not delete message body " + dataFile.getPath() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Deletes the files of messages that are not going to be delivered anymore, e.g. after a crash while they were
+   * received
+   *
+   * @param recovered the messages recovered from the spool, their files are kept
+   * @return the number of deleted files
+   * @throws IOException if the directory cannot be listed
+   */
+  public int deleteUnreferenced(List<Email> recovered) throws IOException {
+    Set<Path> referenced = new HashSet<>();
+    for (Email email : recovered) {
+      if (email.getDataFile() != null) {
+        referenced.add(email.getDataFile().getPath().toAbsolutePath());
+      }
+    }
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(directory)) {
+      files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList());
+    }
+    int deleted = 0;
+    for (Path file : files) {
+      if (!referenced.contains(file.toAbsolutePath())) {
+        Files.deleteIfExists(file);
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Streams the argument of one {@code data} line into its file. Like the argument of a line kept in memory, the
+   * body is stored without surrounding whitespace.
+   */
+  public class Writer {
+    private final Path file;
+    private final FileChannel channel;
+    private long written = 0;
+    //length of the body up to its last character that is not whitespace
+    private long trimmedLength = 0;
+
+    private Writer(Path file) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends a part of the body
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      int start = offset;
+      int end = offset + length;
+      if (written == 0) {
+        while (start < end && DmtpParser.isWhitespace(bytes[start])) {
+          start++;
+        }
+      }
+      for (int i = end - 1; i >= start; i--) {
+        if (!DmtpParser.isWhitespace(bytes[i])) {
+          trimmedLength = written + i - start + 1;
+          break;
+        }
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes, start, end - start);
+      while (buffer.hasRemaining()) {
+        written += channel.write(buffer);
+      }
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long size() {
+      return written;
+    }
+
+    /**
+     * Completes the body
+     *
+     * @return the handle of the body
+     * @throws IOException if the file cannot be written, it is deleted then
+     */
+    public DataFile finish() throws IOException {
+      try {
+        channel.truncate(trimmedLength);
+        if (force) {
+          channel.force(false);
+        }
+        channel.close();
+      } catch (IOException e) {
+        abort();
+        throw e;
+      }
+      return new DataFile(file, trimmedLength);
+    }
+
+    /**
+     * Discards the body, e.g. because it is too large or the client disconnected
+     */
+    public void abort() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.debug("Error while closing message body " + file + ": " + e.getMessage());
+      }
+      delete(new DataFile(file, 0));
+    }
+  }
+}
@@ -0,0 +1,501 @@
+package dslab.transfer.spool;
+
+import dslab.util.Config;
+import dslab.util.datastructures.DataFile;
+import dslab.util.datastructures.Email;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of the messages accepted by the Transfer Server.
+ * <p>
+ * Every accepted message is appended as an {@code ACCEPT} record before the client gets its {@code ok}, every
+ * finished delivery as a {@code DELIVERED} record. The journal is split into segment files in {@code spool.dir};
+ * a segment is deleted once all messages accepted in it and in every older segment were delivered, which
+ * checkpoints the journal. On startup {@link #recover()} returns the messages that were accepted but never
+ * delivered.
+ * <p>
+ * Durability is configured by {@code spool.fsync}:
+ * <ul>
+ *   <li>{@code always} - {@link #append} returns once the record was forced to disk. Concurrent appenders are
+ *   group committed: the first one forces the segment for everything written so far, the others just wait for it.</li>
+ *   <li>{@code interval} - the segment is forced every {@code spool.fsync.interval.ms} in the background, a crash of
+ *   the machine may lose the records of the last interval.</li>
+ *   <li>{@code never} - the operating system decides when to write, which survives a crash of the process only.</li>
+ * </ul>
+ * Record layout: {@code int length | int crc | byte type | long id | payload}, a length of 0 marks the end of a
+ * segment. A record with a wrong checksum (torn write) ends the replay of its segment. The record of a message whose
+ * body was spilled by the {@link BodySpill} holds the path of the body file instead of the body.
+ */
+public class SpoolJournal {
+
+  private static final Log LOG = LogFactory.getLog(SpoolJournal.class);
+  private static final byte ACCEPT = 1;
+  private static final byte DELIVERED = 2;
+  //length of the data field of a message whose body was spilled, the path of its file follows
+  private static final int SPILLED = -2;
+  private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+  private static final String SUFFIX = ".journal";
+  private final Path directory;
+  private final int segmentSize;
+  private final FsyncPolicy fsyncPolicy;
+  private final Object forceLock = new Object();
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+  //journal id and segment of every message not delivered yet, by identity as the messages themselves have no id
+  private final Map<Email, Spooled> spooled = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService forcer;
+  private Segment current;
+  private long nextId = 1;
+  private volatile long written = 0;
+  private volatile long forced = 0;
+  private volatile boolean closed = false;
+
+  /**
+   * How the journal is forced to disk
+   */
+  public enum FsyncPolicy {
+    ALWAYS, INTERVAL, NEVER
+  }
+
+  public SpoolJournal(Config transferConfig) throws IOException {
+    this.directory = Paths.get(transferConfig.containsKey("spool.dir")
+            ? transferConfig.getString("spool.dir") : "spool");
+    this.segmentSize = transferConfig.getInt("spool.segment.size", 16 * 1024 * 1024);
+    this.fsyncPolicy = FsyncPolicy.valueOf((transferConfig.containsKey("spool.fsync")
+            ? transferConfig.getString("spool.fsync") : "always").toUpperCase());
+    Files.createDirectories(directory);
+    if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+      int interval = Math.max(1, transferConfig.getInt("spool.fsync.interval.ms", 10));
+      forcer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "spoolForcer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      forcer.scheduleWithFixedDelay(this::forceQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    } else {
+      forcer = null;
+    }
+  }
+
+  /**
+   * Reads all segments and returns the messages that were accepted but not delivered, in the order they were
+   * accepted. Has to be called once before the first {@link #append}.
+   *
+   * @return the undelivered messages
+   * @throws IOException if a segment cannot be read
+   */
+  public synchronized List<Email> recover() throws IOException {
+    Map<Long, Email> pending = new LinkedHashMap<>();
+    Map<Long, Long> segmentNumberOfMessage = new HashMap<>();
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(directory)) {
+      files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().collect(Collectors.toList());
+    }
+    long lastSegment = 0;
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      long number = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+      lastSegment = Math.max(lastSegment, number);
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+      segments.put(number, new Segment(number, file, null));
+      readRecords(buffer, number, pending, segmentNumberOfMessage);
+    }
+    for (Map.Entry<Long, Long> entry : segmentNumberOfMessage.entrySet()) {
+      Email email = pending.get(entry.getKey());
+      if (email != null) {
+        Segment segment = segments.get(entry.getValue());
+        segment.live.incrementAndGet();
+        spooled.put(email, new Spooled(entry.getKey(), segment));
+      }
+    }
+    for (Long id : pending.keySet()) {
+      nextId = Math.max(nextId, id + 1);
+    }
+    current = openSegment(lastSegment + 1, segmentSize);
+    deleteDeliveredSegments();
+    LOG.info("recovered " + pending.size() + " undelivered message(s) from " + directory);
+    return new ArrayList<>(pending.values());
+  }
+
+  /**
+   * Appends an accepted message under a new journal id. Depending on the fsync policy the call returns once
+   * the record is on disk.
+   *
+   * @param email accepted message
+   * @throws IOException if the record could not be written
+   */
+  public void append(Email email) throws IOException {
+    appendAll(List.of(email));
+  }
+
+  /**
+   * Appends several accepted messages with a single force, see {@link #append(Email)}
+   *
+   * @param emails accepted messages
+   * @throws IOException if the records could not be written
+   */
+  public void appendAll(List<Email> emails) throws IOException {
+    appendAll(emails, null);
+  }
+
+  /**
+   * Appends a message that is delivered to one of its domains only, e.g. a dead letter sent again. The record lists
+   * only that domain and its recipients, so a recovery does not deliver the message to the other domains again.
+   *
+   * @param email  accepted message, checkpointed by {@link #markDelivered(Email)} as usual
+   * @param domain the only domain the message is delivered to
+   * @throws IOException if the record could not be written
+   */
+  public void append(Email email, String domain) throws IOException {
+    appendAll(List.of(email), domain);
+  }
+
+  /**
+   * @param domain the only domain the messages are recorded for, null for all of their domains
+   */
+  private void appendAll(List<Email> emails, String domain) throws IOException {
+    long position;
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("spool is closed");
+      }
+      for (Email email : emails) {
+        long id = nextId++;
+        write(ACCEPT, id, encode(email, domain));
+        current.live.incrementAndGet();
+        spooled.put(email, new Spooled(id, current));
+      }
+      position = written;
+    }
+    if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+      force(position);
+    }
+  }
+
+  /**
+   * Checkpoints a message whose delivery finished, successful or not, so it is not replayed anymore
+   *
+   * @param email delivered message
+   */
+  public void markDelivered(Email email) {
+    Spooled record = spooled.remove(email);
+    if (record == null) {
+      return;
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      try {
+        write(DELIVERED, record.id, new byte[0]);
+      } catch (IOException e) {
+        //the message is delivered a second time after a restart
+        LOG.error("Could not checkpoint message " + record.id + ": " + e.getMessage());
+      }
+      record.segment.live.decrementAndGet();
+      deleteDeliveredSegments();
+    }
+  }
+
+  /**
+   * @return the number of accepted messages not delivered yet
+   */
+  public int pendingMessages() {
+    return spooled.size();
+  }
+
+  /**
+   * Forces the current segment to disk and stops writing
+   */
+  public void close() {
+    if (forcer != null) {
+      forcer.shutdownNow();
+    }
+    forceQuietly();
+    synchronized (this) {
+      closed = true;
+    }
+  }
+
+  /**
+   * Writes a record to the current segment, rolling over to a new segment if it does not fit
+   */
+  private void write(byte type, long id, byte[] payload) throws IOException {
+    int length = HEADER_SIZE + payload.length;
+    //keep room for the terminating 0 length
+    if (current.buffer.remaining() < length + 4) {
+      current.buffer.force();
+      current = openSegment(current.number + 1, Math.max(segmentSize, length + 4));
+    }
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(ByteBuffer.allocate(8).putLong(0, id));
+    crc.update(payload);
+    MappedByteBuffer buffer = current.buffer;
+    int start = buffer.position();
+    buffer.position(start + 4);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(type);
+    buffer.putLong(id);
+    buffer.put(payload);
+    //the length is written last, so a reader never sees a complete header in front of a partial record
+    buffer.putInt(start, length);
+    written++;
+  }
+
+  /**
+   * Forces the journal up to the given write position to disk. Only one thread forces at a time, threads
+   * arriving meanwhile are covered by that force if their record was written before it started.
+   */
+  private void force(long position) throws IOException {
+    if (forced >= position) {
+      return;
+    }
+    synchronized (forceLock) {
+      if (forced >= position) {
+        return;
+      }
+      long target;
+      MappedByteBuffer buffer;
+      synchronized (this) {
+        target = written;
+        buffer = current.buffer;
+      }
+      try {
+        buffer.force();
+      } catch (RuntimeException e) {
+        throw new IOException("could not force spool segment", e);
+      }
+      forced = target;
+    }
+  }
+
+  private void forceQuietly() {
+    try {
+      force(written);
+    } catch (IOException e) {
+      LOG.error(e.getMessage());
+    }
+  }
+
+  private void readRecords(ByteBuffer buffer, long segment, Map<Long, Email> pending,
+                           Map<Long, Long> segmentNumberOfMessage) {
+    while (buffer.remaining() >= HEADER_SIZE) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      if (length < HEADER_SIZE || length > buffer.limit() - start) {
+        return;
+      }
+      int crcValue = buffer.getInt();
+      byte type = buffer.get();
+      long id = buffer.getLong();
+      byte[] payload = new byte[length - HEADER_SIZE];
+      buffer.get(payload);
+      CRC32 crc = new CRC32();
+      crc.update(type);
+      crc.update(ByteBuffer.allocate(8).putLong(0, id));
+      crc.update(payload);
+      if ((int) crc.getValue() != crcValue) {
+        LOG.error("corrupt record in spool segment " + segment + " at " + start + ", ignoring the rest");
+        return;
+      }
+      if (type == ACCEPT) {
+        try {
+          Email email = decode(ByteBuffer.wrap(payload), id);
+          if (email != null) {
+            pending.put(id, email);
+            segmentNumberOfMessage.put(id, segment);
+          }
+        } catch (BufferUnderflowException e) {
+          LOG.error("unreadable message " + id + " in spool segment " + segment);
+        }
+      } else if (type == DELIVERED) {
+        pending.remove(id);
+      }
+    }
+  }
+
+  /**
+   * Deletes the oldest segments as long as all of their messages are delivered. Only a prefix is removed, because
+   * the DELIVERED record of a message may live in a newer segment than the message itself.
+   */
+  private void deleteDeliveredSegments() {
+    while (!segments.isEmpty()) {
+      Segment oldest = segments.firstEntry().getValue();
+      if (oldest == current || oldest.live.get() > 0) {
+        return;
+      }
+      segments.pollFirstEntry();
+      try {
+        Files.deleteIfExists(oldest.file);
+      } catch (IOException e) {
+        LOG.error("Could not delete spool segment " + oldest.file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private Segment openSegment(long number, int size) throws IOException {
+    Path file = directory.resolve(String.format("%020d%s", number, SUFFIX));
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      Segment segment = new Segment(number, file, buffer);
+      segments.put(number, segment);
+      return segment;
+    }
+  }
+
+  private static byte[] encode(Email email, String onlyDomain) {
+    List<byte[]> fields = new ArrayList<>();
+    fields.add(bytes(email.getFrom()));
+    fields.add(bytes(email.getTo()));
+    fields.add(email.getSubjectBytes());
+    DataFile dataFile = email.getDataFile();
+    //a spilled body stays in its file, the record refers to it
+    fields.add(dataFile != null ? bytes(dataFile.getPath().toString()) : email.getDataBytes());
+    fields.add(email.getHashBytes());
+    List<String> domains = onlyDomain != null ? List.of(onlyDomain)
+            : email.getDomains() == null ? List.of() : email.getDomains();
+    //every domain is followed by its recipients
+    for (String domain : domains) {
+      fields.add(bytes(domain));
+      fields.add(bytes(email.hasRecipientsByDomain() ? email.getRecipients(domain) : null));
+    }
+    int size = dataFile != null ? 8 : 4;
+    for (byte[] field : fields) {
+      size += 4 + (field == null ? 0 : field.length);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (int i = 0; i < 5; i++) {
+      if (i == 3 && dataFile != null) {
+        buffer.putInt(SPILLED);
+      }
+      putField(buffer, fields.get(i));
+    }
+    buffer.putInt(domains.size());
+    for (int i = 5; i < fields.size(); i++) {
+      putField(buffer, fields.get(i));
+    }
+    return buffer.array();
+  }
+
+  /**
+   * @return the message or null if its spilled body is missing
+   */
+  private static Email decode(ByteBuffer buffer, long id) {
+    Email.Builder email = new Email.Builder().from(getField(buffer)).to(getField(buffer)).subject(getField(buffer));
+    if (buffer.getInt(buffer.position()) == SPILLED) {
+      buffer.getInt();
+      Path file = Paths.get(getField(buffer));
+      try {
+        email.dataFile(new DataFile(file, Files.size(file)));
+      } catch (IOException e) {
+        LOG.error("body of message " + id + " is missing: " + file);
+        return null;
+      }
+    } else {
+      email.dataBytes(getFieldBytes(buffer));
+    }
+    email.hash(getField(buffer));
+    int domainCount = buffer.getInt();
+    List<String> domains = new ArrayList<>(domainCount);
+    Map<String, String> recipients = new LinkedHashMap<>();
+    for (int i = 0; i < domainCount; i++) {
+      String domain = getField(buffer);
+      String domainRecipients = getField(buffer);
+      domains.add(domain);
+      if (domainRecipients != null) {
+        recipients.put(domain, domainRecipients);
+      }
+    }
+    if (recipients.size() == domainCount && domainCount > 0) {
+      email.recipientsByDomain(recipients);
+    } else {
+      email.domains(domains);
+    }
+    return email.build();
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void putField(ByteBuffer buffer, byte[] field) {
+    if (field == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(field.length);
+      buffer.put(field);
+    }
+  }
+
+  private static String getField(ByteBuffer buffer) {
+    byte[] bytes = getFieldBytes(buffer);
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] getFieldBytes(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Journal id of a message not delivered yet and the segment holding its record
+   */
+  private static class Spooled {
+    private final long id;
+    private final Segment segment;
+
+    private Spooled(long id, Segment segment) {
+      this.id = id;
+      this.segment = segment;
+    }
+  }
+
+  /**
+   * One journal file and the number of its messages that are not delivered yet
+   */
+  private static class Segment {
+    private final long number;
+    private final Path file;
+    //null for segments recovered from disk, they are never written again
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger live = new AtomicInteger();
+
+    private Segment(long number, Path file, MappedByteBuffer buffer) {
+      this.number = number;
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+}
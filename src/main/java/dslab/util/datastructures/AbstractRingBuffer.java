@@ -0,0 +1,274 @@
+package dslab.util.datastructures;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bounded queue on a preallocated array, based on the per slot sequence algorithm by Dmitry Vyukov.
+ * <p>
+ * Every slot carries a sequence number telling whose turn it is: a producer may fill slot {@code i} of round
+ * {@code r} if its sequence equals the producer index, a consumer may empty it once the sequence equals the
+ * producer index + 1. Producers claim slots by a CAS on the padded producer index, so any number of threads may
+ * offer concurrently. How slots are claimed by consumers is decided by the subclasses.
+ * <p>
+ * Besides the non-blocking {@link #offer(Object)} and {@link #poll()} there are timed and blocking variants.
+ * They do not use locks or monitors either, instead the waiting thread spins briefly, then yields and finally
+ * parks with a growing back off.
+ *
+ * @param <E> type of the elements
+ */
+public abstract class AbstractRingBuffer<E> {
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  //spinning only helps if the other side runs on another core at the same time
+  private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+  private static final int YIELDS = 200;
+  protected final int capacity;
+  protected final int mask;
+  protected final Object[] buffer;
+  protected final AtomicLongArray sequences;
+  protected final Sequence producerIndex = new Sequence(0);
+  protected final Sequence consumerIndex = new Sequence(0);
+
+  /**
+   * @param requestedCapacity minimum capacity, it is rounded up to the next power of two
+   */
+  protected AbstractRingBuffer(int requestedCapacity) {
+    if (requestedCapacity < 1 || requestedCapacity > (1 << 30)) {
+      throw new IllegalArgumentException("capacity out of range: " + requestedCapacity);
+    }
+    this.capacity = requestedCapacity == 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+    this.mask = capacity - 1;
+    this.buffer = new Object[capacity];
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Inserts the element if there is space left, never blocks
+   *
+   * @param element element to insert, must not be null
+   * @return true if the element was inserted, false if the buffer is full
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    long index;
+    int slot;
+    while (true) {
+      index = producerIndex.get();
+      slot = (int) index & mask;
+      long difference = sequences.get(slot) - index;
+      if (difference == 0) {
+        if (producerIndex.compareAndSet(index, index + 1)) {
+          break;
+        }
+      } else if (difference < 0) {
+        //the slot of the previous round was not consumed yet
+        return false;
+      }
+      //another producer claimed this slot, retry with the new index
+    }
+    buffer[slot] = element;
+    //publishes the element, the consumer reads the sequence before the slot
+    sequences.lazySet(slot, index + 1);
+    return true;
+  }
+
+  /**
+   * Inserts all elements as one block, never blocks. The slots of the whole block are claimed by a single CAS, so
+   * the elements end up next to each other in their order, even if other producers offer at the same time.
+   *
+   * @param elements elements to insert, none of them may be null, at most {@link #capacity()} elements
+   * @return true if all elements were inserted, false if there was not enough space for all of them
+   */
+  public boolean offerAll(List<? extends E> elements) {
+    int count = elements.size();
+    if (count > capacity) {
+      throw new IllegalArgumentException("more elements than capacity: " + count);
+    }
+    if (count == 0) {
+      return true;
+    }
+    for (E element : elements) {
+      if (element == null) {
+        throw new NullPointerException();
+      }
+    }
+    long index;
+    while (true) {
+      index = producerIndex.get();
+      boolean free = true;
+      boolean claimedByOther = false;
+      for (int i = 0; i < count && free; i++) {
+        long difference = sequences.get((int) (index + i) & mask) - (index + i);
+        free = difference == 0;
+        claimedByOther = difference > 0;
+      }
+      if (free) {
+        if (producerIndex.compareAndSet(index, index + count)) {
+          break;
+        }
+      } else if (!claimedByOther) {
+        //a slot of the previous round was not consumed yet
+        return false;
+      }
+      //another producer claimed some of the slots, retry with the new index
+    }
+    for (int i = 0; i < count; i++) {
+      int slot = (int) (index + i) & mask;
+      buffer[slot] = elements.get(i);
+      sequences.lazySet(slot, index + i + 1);
+    }
+    return true;
+  }
+
+  /**
+   * Inserts all elements as one block, waiting up to the given time for enough space to become available
+   *
+   * @param elements elements to insert, at most {@link #capacity()} elements
+   * @param timeout  how long to wait
+   * @param unit     unit of the timeout
+   * @return true if the elements were inserted, false if there was not enough space in time
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public boolean offerAll(List<? extends E> elements, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int attempt = 0;
+    while (!offerAll(elements)) {
+      if (!backOff(attempt++, deadline)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retrieves and removes the oldest element, never blocks
+   *
+   * @return the element or null if the buffer is empty
+   */
+  public abstract E poll();
+
+  /**
+   * Inserts the element, waiting up to the given time for space to become available
+   *
+   * @param element element to insert
+   * @param timeout how long to wait
+   * @param unit    unit of the timeout
+   * @return true if the element was inserted, false if the buffer stayed full
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int attempt = 0;
+    while (!offer(element)) {
+      if (!backOff(attempt++, deadline)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Inserts the element, waiting as long as necessary for space to become available
+   *
+   * @param element element to insert
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public void put(E element) throws InterruptedException {
+    int attempt = 0;
+    while (!offer(element)) {
+      backOff(attempt++, Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Retrieves and removes the oldest element, waiting up to the given time for one to arrive
+   *
+   * @param timeout how long to wait
+   * @param unit    unit of the timeout
+   * @return the element or null if the buffer stayed empty
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int attempt = 0;
+    E element;
+    while ((element = poll()) == null) {
+      if (!backOff(attempt++, deadline)) {
+        return null;
+      }
+    }
+    return element;
+  }
+
+  /**
+   * Retrieves and removes the oldest element, waiting as long as necessary for one to arrive
+   *
+   * @return the element
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public E take() throws InterruptedException {
+    int attempt = 0;
+    E element;
+    while ((element = poll()) == null) {
+      backOff(attempt++, Long.MAX_VALUE);
+    }
+    return element;
+  }
+
+  /**
+   * @return the number of elements, only an estimate while other threads modify the buffer
+   */
+  public int size() {
+    long size = producerIndex.get() - consumerIndex.get();
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  @SuppressWarnings("unchecked")
+  protected E consume(int slot, long index) {
+    E element = (E) buffer[slot];
+    buffer[slot] = null;
+    //frees the slot for the producers of the next round
+    sequences.lazySet(slot, index + capacity);
+    return element;
+  }
+
+  /**
+   * Waits a little before the next attempt: first spinning, then yielding, then parking for a growing time
+   *
+   * @return false if the deadline has passed
+   */
+  private boolean backOff(int attempt, long deadline) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) {
+      return false;
+    }
+    if (attempt < SPINS) {
+      Thread.onSpinWait();
+    } else if (attempt < SPINS + YIELDS) {
+      Thread.yield();
+    } else {
+      long park = Math.min(MAX_PARK_NANOS, 1000L << Math.min(attempt - SPINS - YIELDS, 10));
+      LockSupport.parkNanos(this, Math.min(park, remaining));
+    }
+    return true;
+  }
+}
@@ -0,0 +1,75 @@
+package dslab.util.datastructures;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Canonical instances of single addresses and domains of messages, so all messages of a sender or to a domain share
+ * one String instead of each of them holding a copy.
+ * <p>
+ * Unlike {@link String#intern()} the dictionary is bounded: it holds at most {@value #MAX_ENTRIES} values and evicts
+ * the least recently used ones, so clients sending random addresses cannot grow it without limit and the addresses
+ * of active senders and domains stay in it. An evicted value is only copied again by the next message using it.
+ * <p>
+ * The values are spread over {@value #STRIPES} independently locked LRU maps, so the servers' threads rarely wait for
+ * each other.
+ */
+public final class AddressDictionary {
+
+  static final int MAX_ENTRIES = 1 << 16;
+  private static final int STRIPES = 16;
+  private static final Stripe[] stripes = new Stripe[STRIPES];
+
+  static {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(MAX_ENTRIES / STRIPES);
+    }
+  }
+
+  private AddressDictionary() {
+  }
+
+  /**
+   * @param value a single address or a domain
+   * @return the canonical instance equal to the value, the value itself if it was not known
+   */
+  public static String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+    Stripe stripe = stripes[(value.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    synchronized (stripe) {
+      String canonical = stripe.putIfAbsent(value, value);
+      return canonical == null ? value : canonical;
+    }
+  }
+
+  /**
+   * @return the number of canonical values
+   */
+  public static int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  //access ordered, so the eldest entry is the least recently used one
+  private static final class Stripe extends LinkedHashMap<String, String> {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+
+    private Stripe(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > capacity;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package dslab.util.datastructures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Handle of a message body that was spilled to a file instead of being kept on the heap. The file holds the UTF-8
+ * encoded body and is not changed anymore once the handle exists.
+ */
+public final class DataFile {
+
+  private final Path path;
+  private final long length;
+
+  public DataFile(Path path, long length) {
+    this.path = path;
+    this.length = length;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * @return the length of the body in bytes
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return a stream over the body, to be closed by the caller
+   * @throws IOException if the file cannot be opened
+   */
+  public InputStream open() throws IOException {
+    return Files.newInputStream(path);
+  }
+
+  /**
+   * Writes the whole body to the channel, for a socket channel the kernel copies it from the page cache directly
+   *
+   * @param target channel in blocking mode
+   * @throws IOException if the file cannot be read or the channel not be written
+   */
+  public void transferTo(WritableByteChannel target) throws IOException {
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      long position = 0;
+      while (position < length) {
+        long transferred = file.transferTo(position, length - position, target);
+        if (transferred == 0 && position >= file.size()) {
+          throw new IOException("message body " + path + " is truncated");
+        }
+        position += transferred;
+      }
+    }
+  }
+
+  /**
+   * Reads the whole body onto the heap, only for callers that need it as text
+   *
+   * @return the body
+   * @throws UncheckedIOException if the file cannot be read
+   */
+  public byte[] readAll() {
+    try {
+      return Files.readAllBytes(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read message body " + path, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return path + " (" + length + " bytes)";
+  }
+}
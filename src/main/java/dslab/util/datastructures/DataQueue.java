@@ -6,6 +6,10 @@ import java.util.Queue;
 
 /**
  * A Queue for the Producer-Consumer Problem
+ * <p>
+ * The queue may be shared by several producers and consumers, therefore access to the
+ * underlying list is synchronized. The timed wait methods allow callers to re-check the
+ * queue state periodically instead of relying on a single notification.
  */
 public class DataQueue {
   private final Queue<Email> queue = new LinkedList<>();
@@ -17,15 +21,24 @@ public class DataQueue {
     this.maxSize = maxSize;
   }
 
-  public Email poll() {
+  public synchronized Email poll() {
     return queue.poll();
   }
 
-  public Email peek() {
+  public synchronized Email peek() {
     return queue.peek();
   }
 
-  public boolean add(Email email) {
+  /**
+   * Adds the email to the queue if there is still space left
+   *
+   * @param email email to add
+   * @return true if the email was added, false if the queue is full
+   */
+  public synchronized boolean add(Email email) {
+    if (queue.size() >= maxSize) {
+      return false;
+    }
     return queue.add(email);
   }
 
@@ -35,6 +48,12 @@ public class DataQueue {
     }
   }
 
+  public void waitOnFull(long timeoutMillis) throws InterruptedException {
+    synchronized (FULL) {
+      FULL.wait(timeoutMillis);
+    }
+  }
+
   public void notifyAllForFull() {
     synchronized (FULL) {
       FULL.notifyAll();
@@ -53,11 +72,17 @@ public class DataQueue {
     }
   }
 
-  public boolean isFull() {
+  public void waitOnEmpty(long timeoutMillis) throws InterruptedException {
+    synchronized (EMPTY) {
+      EMPTY.wait(timeoutMillis);
+    }
+  }
+
+  public synchronized boolean isFull() {
     return queue.size() == maxSize;
   }
 
-  public boolean isEmpty() {
+  public synchronized boolean isEmpty() {
     return queue.size() == 0;
   }
 }
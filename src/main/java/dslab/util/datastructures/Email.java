@@ -1,74 +1,176 @@
 package dslab.util.datastructures;
 
+import dslab.util.dmtp.DataCompression;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
- * POJO representing an Email with all its Content
+ * Immutable Email with all its Content, built by an {@link Builder} while its DMTP transaction is received.
+ * <p>
+ * To keep the many messages held by the queues of the Transfer Server and the {@code MessageStorage} of a Mailbox
+ * Server small, single addresses and domains are canonical instances of the {@link AddressDictionary}, shared by all
+ * messages of a sender or to a domain, and the subject, hash and body are kept as UTF-8 bytes. The String getters
+ * decode them on every call, the relay path uses the bytes directly.
+ * <p>
+ * Emails are compared by identity: the same text sent twice is two messages.
  */
-public class Email {
-  private String from;
-  private String to;
-  private String subject;
-  private String data;
-  private List<String> domains;
-  private String hash;
+public final class Email {
+  private final String from;
+  private final String to;
+  private final byte[] subject;
+  private final byte[] hash;
+  //the body is kept as exactly one of: UTF-8 bytes, raw Deflate bytes as received compressed over DMTP, or a file
+  private final byte[] data;
+  private final byte[] compressedData;
+  private final DataFile dataFile;
+  //null if the domains were not determined
+  private final String[] domains;
+  //recipients of the to line of each domain, joined by ',' as in the to line, null if they were not grouped
+  private final String[] recipients;
 
-  public Email() {
+  public Email(String from, String to, String subject, String data) {
+    this(new Builder().from(from).to(to).subject(subject).data(data));
   }
 
-  public Email(String from, String to, String subject, String data) {
-    this.from = from;
-    this.to = to;
-    this.subject = subject;
-    this.data = data;
+  private Email(Builder builder) {
+    this.from = AddressDictionary.intern(builder.from);
+    this.to = internAddress(builder.to);
+    this.subject = utf8(builder.subject);
+    this.hash = utf8(builder.hash);
+    this.data = builder.data;
+    this.compressedData = builder.compressedData;
+    this.dataFile = builder.dataFile;
+    if (builder.recipientsByDomain != null) {
+      int count = builder.recipientsByDomain.size();
+      this.domains = new String[count];
+      this.recipients = new String[count];
+      int i = 0;
+      for (Map.Entry<String, String> entry : builder.recipientsByDomain.entrySet()) {
+        domains[i] = AddressDictionary.intern(entry.getKey());
+        recipients[i] = internAddress(entry.getValue());
+        i++;
+      }
+    } else if (builder.domains != null) {
+      this.domains = builder.domains.stream().map(AddressDictionary::intern).toArray(String[]::new);
+      this.recipients = null;
+    } else {
+      this.domains = null;
+      this.recipients = null;
+    }
   }
 
   public String getHash() {
-    return hash;
+    return text(hash);
   }
 
-  public void setHash(String hash) {
-    this.hash = hash;
+  /**
+   * @return the hash as UTF-8 bytes, must not be modified
+   */
+  public byte[] getHashBytes() {
+    return hash;
   }
 
   public String getFrom() {
     return from;
   }
 
-  public void setFrom(String from) {
-    this.from = from;
-  }
-
   public String getTo() {
     return to;
   }
 
-  public void setTo(String to) {
-    this.to = to;
+  public String getSubject() {
+    return text(subject);
   }
 
-  public String getSubject() {
+  /**
+   * @return the subject as UTF-8 bytes, must not be modified
+   */
+  public byte[] getSubjectBytes() {
     return subject;
   }
 
-  public void setSubject(String subject) {
-    this.subject = subject;
+  /**
+   * @return the domains of the recipients, null if they were not determined
+   */
+  public List<String> getDomains() {
+    return domains == null ? null : Collections.unmodifiableList(Arrays.asList(domains));
   }
 
-  public List<String> getDomains() {
-    return domains;
+  public boolean hasRecipientsByDomain() {
+    return recipients != null;
   }
 
-  public void setDomains(List<String> domains) {
-    this.domains = domains;
+  /**
+   * @param domain one of the domains of the email
+   * @return the recipients of that domain, or the whole to line if the recipients were not grouped
+   */
+  public String getRecipients(String domain) {
+    if (recipients == null) {
+      return to;
+    }
+    for (int i = 0; i < domains.length; i++) {
+      if (domains[i].equals(domain)) {
+        return recipients[i];
+      }
+    }
+    return to;
   }
 
+  /**
+   * @return the body decoded to text, a compressed body is inflated and a spilled body read on every call
+   */
   public String getData() {
-    return data;
+    if (dataFile != null) {
+      //a spilled body is streamed and only read as text by exception
+      return text(dataFile.readAll());
+    }
+    if (compressedData != null) {
+      return DataCompression.inflate(compressedData);
+    }
+    return text(data);
+  }
+
+  /**
+   * @return the file holding the body, null if the body is kept in memory
+   */
+  public DataFile getDataFile() {
+    return dataFile;
+  }
+
+  /**
+   * @return the body as UTF-8 bytes, not to be modified, or the content of the spilled file; null if no body was set
+   */
+  public byte[] getDataBytes() {
+    if (data != null) {
+      return data;
+    }
+    if (dataFile != null) {
+      return dataFile.readAll();
+    }
+    return compressedData == null ? null : DataCompression.inflate(compressedData).getBytes(StandardCharsets.UTF_8);
   }
 
-  public void setData(String data) {
-    this.data = data;
+  /**
+   * @return the length of the body in bytes, without reading a spilled body
+   */
+  public long getDataLength() {
+    if (dataFile != null) {
+      return dataFile.getLength();
+    }
+    byte[] bytes = getDataBytes();
+    return bytes == null ? 0 : bytes.length;
+  }
+
+  /**
+   * @return true if a body was set, without inflating a compressed one
+   */
+  public boolean hasData() {
+    return data != null || compressedData != null || dataFile != null;
   }
 
   @Override
@@ -76,9 +178,138 @@ public class Email {
     return "Email{" +
             "from='" + from + '\'' +
             ", to='" + to + '\'' +
-            ", subject='" + subject + '\'' +
-            ", data='" + data + '\'' +
-            ", domains='" + domains + '\'' +
+            ", subject='" + getSubject() + '\'' +
+            ", data='" + describeData() + '\'' +
+            ", domains='" + getDomains() + '\'' +
             '}';
   }
+
+  //the body without decoding or inflating it
+  private String describeData() {
+    if (dataFile != null) {
+      return "<" + dataFile + ">";
+    }
+    if (compressedData != null) {
+      return "<compressed>";
+    }
+    return data == null ? null : "<" + data.length + " bytes>";
+  }
+
+  //a list of addresses is rarely sent twice, so only single addresses are worth sharing
+  private static String internAddress(String value) {
+    return value == null || value.indexOf(',') >= 0 ? value : AddressDictionary.intern(value);
+  }
+
+  private static byte[] utf8(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String text(byte[] value) {
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Collects the fields of an Email while its transaction is received. A body set again replaces the previous one.
+   */
+  public static final class Builder {
+    private String from;
+    private String to;
+    private String subject;
+    private String hash;
+    private byte[] data;
+    private byte[] compressedData;
+    private DataFile dataFile;
+    private List<String> domains;
+    private Map<String, String> recipientsByDomain;
+
+    public Builder from(String from) {
+      this.from = from;
+      return this;
+    }
+
+    public Builder to(String to) {
+      this.to = to;
+      return this;
+    }
+
+    public Builder subject(String subject) {
+      this.subject = subject;
+      return this;
+    }
+
+    public Builder hash(String hash) {
+      this.hash = hash;
+      return this;
+    }
+
+    public Builder data(String data) {
+      return dataBytes(data == null ? null : data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param dataBytes the UTF-8 encoded body, not copied
+     */
+    public Builder dataBytes(byte[] dataBytes) {
+      this.data = dataBytes;
+      this.compressedData = null;
+      this.dataFile = null;
+      return this;
+    }
+
+    /**
+     * @param compressedData raw Deflate bytes of the UTF-8 body, only inflated when the body is read
+     */
+    public Builder compressedData(byte[] compressedData) {
+      this.compressedData = compressedData;
+      this.data = null;
+      this.dataFile = null;
+      return this;
+    }
+
+    /**
+     * @param dataFile the file holding the UTF-8 encoded body, only read if the body is requested as text or bytes
+     */
+    public Builder dataFile(DataFile dataFile) {
+      this.dataFile = dataFile;
+      this.data = null;
+      this.compressedData = null;
+      return this;
+    }
+
+    public Builder domains(List<String> domains) {
+      this.domains = domains;
+      return this;
+    }
+
+    /**
+     * Sets the recipients grouped by domain, the domains of the email are the keys in their order
+     *
+     * @param recipientsByDomain domain to comma separated recipients of that domain
+     */
+    public Builder recipientsByDomain(Map<String, String> recipientsByDomain) {
+      this.recipientsByDomain = recipientsByDomain;
+      this.domains = recipientsByDomain == null ? null : new ArrayList<>(recipientsByDomain.keySet());
+      return this;
+    }
+
+    public String getFrom() {
+      return from;
+    }
+
+    public DataFile getDataFile() {
+      return dataFile;
+    }
+
+    /**
+     * @return true if sender, recipients, subject and body are set
+     */
+    public boolean isComplete() {
+      return from != null && to != null && subject != null
+              && (data != null || compressedData != null || dataFile != null);
+    }
+
+    public Email build() {
+      return new Email(this);
+    }
+  }
 }
@@ -0,0 +1,34 @@
+package dslab.util.datastructures;
+
+/**
+ * Lock-free bounded multi-producer/multi-consumer queue.
+ * <p>
+ * Consumers claim slots by a CAS on the padded consumer index, so any number of threads may offer and
+ * poll concurrently.
+ *
+ * @param <E> type of the elements
+ */
+public class MpmcRingBuffer<E> extends AbstractRingBuffer<E> {
+
+  public MpmcRingBuffer(int capacity) {
+    super(capacity);
+  }
+
+  @Override
+  public E poll() {
+    while (true) {
+      long index = consumerIndex.get();
+      int slot = (int) index & mask;
+      long difference = sequences.get(slot) - (index + 1);
+      if (difference == 0) {
+        if (consumerIndex.compareAndSet(index, index + 1)) {
+          return consume(slot, index);
+        }
+      } else if (difference < 0) {
+        //the slot was not published yet, the buffer is empty
+        return null;
+      }
+      //another consumer took this slot, retry with the new index
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package dslab.util.datastructures;
+
+/**
+ * Lock-free bounded multi-producer/single-consumer queue.
+ * <p>
+ * Only one thread may call the poll methods, which lets the consumer advance its index without a CAS.
+ * Any number of threads may offer concurrently.
+ *
+ * @param <E> type of the elements
+ */
+public class MpscRingBuffer<E> extends AbstractRingBuffer<E> {
+
+  public MpscRingBuffer(int capacity) {
+    super(capacity);
+  }
+
+  @Override
+  public E poll() {
+    long index = consumerIndex.get();
+    int slot = (int) index & mask;
+    if (sequences.get(slot) != index + 1) {
+      return null;
+    }
+    consumerIndex.setRelease(index + 1);
+    return consume(slot, index);
+  }
+}
@@ -0,0 +1,58 @@
+package dslab.util.datastructures;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+class SequenceLhsPadding {
+  protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLhsPadding {
+  protected volatile long value;
+}
+
+class SequenceRhsPadding extends SequenceValue {
+  protected long p9, p10, p11, p12, p13, p14, p15;
+}
+
+/**
+ * A counter padded to its own cache line.
+ * <p>
+ * The producer and consumer index of a ring buffer are written by different threads. Without padding both
+ * would usually share a cache line, so every write of one side would invalidate the line the other side
+ * is reading (false sharing). Super classes lay out their fields first, which keeps the padding in front
+ * of and behind the value.
+ */
+public class Sequence extends SequenceRhsPadding {
+
+  private static final VarHandle VALUE;
+
+  static {
+    try {
+      VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  public Sequence(long initialValue) {
+    VALUE.setRelease(this, initialValue);
+  }
+
+  public long get() {
+    return value;
+  }
+
+  /**
+   * Sets the value without a full fence, it becomes visible to other threads in program order
+   *
+   * @param newValue the new value
+   */
+  public void setRelease(long newValue) {
+    VALUE.setRelease(this, newValue);
+  }
+
+  public boolean compareAndSet(long expected, long newValue) {
+    return VALUE.compareAndSet(this, expected, newValue);
+  }
+}
@@ -0,0 +1,148 @@
+package dslab.util.dmtp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the {@code data} field on the DMTP hop from the Transfer to the Mailbox Server.
+ * <p>
+ * A mailbox server that accepts compressed bodies announces {@link #CAPABILITY} in its greeting
+ * ({@code ok DMTP2.0 deflate}). The transfer server then sends bodies above its threshold as
+ * {@code data-deflate <base64>}, the Base64 encoding of the Deflate compressed UTF-8 text, so the line stays
+ * printable and contains no line break.
+ */
+public final class DataCompression {
+
+  public static final String CAPABILITY = "deflate";
+
+  private DataCompression() {
+  }
+
+  /**
+   * @param greeting the first line sent by a DMTP server
+   * @return true if the server announced {@link #CAPABILITY}
+   */
+  public static boolean isAnnounced(String greeting) {
+    for (String word : greeting.split(" ")) {
+      if (word.equals(CAPABILITY)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param data text to compress
+   * @return the compressed text as raw Deflate bytes
+   */
+  public static byte[] deflate(String data) {
+    return deflate(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param input UTF-8 text to compress
+   * @return the compressed text as raw Deflate bytes
+   */
+  public static byte[] deflate(byte[] input) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 2));
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * @param data text to compress
+   * @return the argument of a {@code data-deflate} line
+   */
+  public static String encode(String data) {
+    return Base64.getEncoder().encodeToString(deflate(data));
+  }
+
+  /**
+   * @param data UTF-8 text to compress
+   * @return the argument of a {@code data-deflate} line as ASCII bytes
+   */
+  public static byte[] encode(byte[] data) {
+    return Base64.getEncoder().encode(deflate(data));
+  }
+
+  /**
+   * Compresses and encodes a body that does not fit into memory
+   *
+   * @param data UTF-8 text to compress, read to its end
+   * @param out  receives the argument of a {@code data-deflate} line, it is flushed but not closed
+   * @throws IOException if reading or writing fails
+   */
+  public static void encode(InputStream data, OutputStream out) throws IOException {
+    OutputStream unclosed = new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (OutputStream deflating = new DeflaterOutputStream(Base64.getEncoder().wrap(unclosed), deflater, 8192)) {
+      data.transferTo(deflating);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * @param argument the argument of a {@code data-deflate} line
+   * @return the compressed bytes
+   * @throws IllegalArgumentException if the argument is not valid Base64
+   */
+  public static byte[] decode(String argument) {
+    return Base64.getDecoder().decode(argument);
+  }
+
+  /**
+   * @param compressed raw Deflate bytes
+   * @return the decompressed text
+   * @throws IllegalArgumentException if the bytes are no complete Deflate stream
+   */
+  public static String inflate(byte[] compressed) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("truncated deflate stream");
+        }
+        out.write(buffer, 0, inflated);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("invalid deflate stream: " + e.getMessage());
+    } finally {
+      inflater.end();
+    }
+  }
+}
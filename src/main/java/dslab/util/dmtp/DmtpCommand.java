@@ -0,0 +1,55 @@
+package dslab.util.dmtp;
+
+/**
+ * The commands of the DMTP protocol, {@link #UNKNOWN} for anything else
+ */
+public enum DmtpCommand {
+  BEGIN("begin"),
+  TO("to"),
+  FROM("from"),
+  SUBJECT("subject"),
+  DATA("data"),
+  DATA_DEFLATE("data-deflate"),
+  HASH("hash"),
+  SEND("send"),
+  QUIT("quit"),
+  BATCH("batch"),
+  UNKNOWN("");
+
+  private static final DmtpCommand[] KNOWN = {BEGIN, TO, FROM, SUBJECT, DATA, DATA_DEFLATE, HASH, SEND, QUIT, BATCH};
+  private final String keyword;
+
+  DmtpCommand(String keyword) {
+    this.keyword = keyword;
+  }
+
+  public String getKeyword() {
+    return keyword;
+  }
+
+  /**
+   * Looks up the command whose keyword equals the given region, without creating a substring
+   *
+   * @param line  text containing the keyword
+   * @param start index of the first character of the keyword
+   * @param end   index after the last character of the keyword
+   * @return the command or {@link #UNKNOWN}
+   */
+  static DmtpCommand of(CharSequence line, int start, int end) {
+    int length = end - start;
+    for (DmtpCommand command : KNOWN) {
+      String keyword = command.keyword;
+      if (keyword.length() != length) {
+        continue;
+      }
+      int i = 0;
+      while (i < length && keyword.charAt(i) == line.charAt(start + i)) {
+        i++;
+      }
+      if (i == length) {
+        return command;
+      }
+    }
+    return UNKNOWN;
+  }
+}
@@ -0,0 +1,198 @@
+package dslab.util.dmtp;
+
+/**
+ * Parses DMTP request lines for the request handlers of the Transfer and Mailbox Server.
+ * <p>
+ * A parser belongs to one connection and is reused for every line: {@link #parse(CharSequence)} only records
+ * offsets into the line, so dispatching a command allocates nothing and no regular expressions are involved.
+ * Strings are only created when a handler asks for an argument or address it wants to keep. The line may be any
+ * {@link CharSequence}, e.g. a reused {@link StringBuilder} or {@link java.nio.CharBuffer}.
+ * <p>
+ * Recipient lists ({@code to a@x, b@y}) are walked with {@link #nextAddress()}, which moves a cursor over the
+ * comma separated addresses of the current line.
+ */
+public final class DmtpParser {
+
+  private CharSequence line = "";
+  private DmtpCommand command = DmtpCommand.UNKNOWN;
+  //start of the argument, after the space following the command
+  private int argumentStart;
+  //bounds of the current address and the position of its '@', -1 if it has none
+  private int addressStart;
+  private int addressEnd;
+  private int at;
+  private int cursor;
+
+  /**
+   * Parses a request line, the result is valid until the next call
+   *
+   * @param request the line without line break
+   * @return the command of the line
+   */
+  public DmtpCommand parse(CharSequence request) {
+    this.line = request;
+    int length = request.length();
+    int space = 0;
+    while (space < length && request.charAt(space) != ' ') {
+      space++;
+    }
+    command = DmtpCommand.of(request, 0, space);
+    argumentStart = Math.min(space + 1, length);
+    cursor = argumentStart;
+    addressStart = addressEnd = argumentStart;
+    at = -1;
+    return command;
+  }
+
+  public DmtpCommand command() {
+    return command;
+  }
+
+  /**
+   * @return the number of space separated words after the command
+   */
+  public int argumentCount() {
+    int count = 0;
+    boolean inWord = false;
+    for (int i = argumentStart; i < line.length(); i++) {
+      boolean space = line.charAt(i) == ' ';
+      if (!space && !inWord) {
+        count++;
+      }
+      inWord = !space;
+    }
+    return count;
+  }
+
+  /**
+   * @return the text after the command without surrounding whitespace, empty if there is none
+   */
+  public String argument() {
+    int start = argumentStart;
+    int end = line.length();
+    while (start < end && Character.isWhitespace(line.charAt(start))) {
+      start++;
+    }
+    while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+      end--;
+    }
+    return line.subSequence(start, end).toString();
+  }
+
+  /**
+   * @return the text after the command as sent, e.g. the recipient list of {@code to}
+   */
+  public String rawArgument() {
+    return line.subSequence(argumentStart, line.length()).toString();
+  }
+
+  /**
+   * Moves the address cursor to the next comma separated address of the argument
+   *
+   * @return false if there are no more addresses
+   */
+  public boolean nextAddress() {
+    int length = line.length();
+    if (cursor > length || argumentStart >= length) {
+      return false;
+    }
+    int end = cursor;
+    at = -1;
+    while (end < length && line.charAt(end) != ',') {
+      end++;
+    }
+    int start = cursor;
+    cursor = end + 1;
+    while (start < end && Character.isWhitespace(line.charAt(start))) {
+      start++;
+    }
+    int trimmedEnd = end;
+    while (trimmedEnd > start && Character.isWhitespace(line.charAt(trimmedEnd - 1))) {
+      trimmedEnd--;
+    }
+    for (int i = start; i < trimmedEnd; i++) {
+      if (line.charAt(i) == '@') {
+        at = i;
+        break;
+      }
+    }
+    addressStart = start;
+    addressEnd = trimmedEnd;
+    return true;
+  }
+
+  /**
+   * @return true if the current address contains an '@'
+   */
+  public boolean isAddress() {
+    return at >= 0;
+  }
+
+  /**
+   * @return the current address
+   */
+  public String address() {
+    return line.subSequence(addressStart, addressEnd).toString();
+  }
+
+  /**
+   * @return the part of the current address in front of the '@'
+   */
+  public String localPart() {
+    return line.subSequence(addressStart, at < 0 ? addressEnd : at).toString();
+  }
+
+  /**
+   * @return the part of the current address after the first '@', empty if it has none
+   */
+  public String domain() {
+    return at < 0 ? "" : line.subSequence(at + 1, addressEnd).toString();
+  }
+
+  /**
+   * Compares the domain of the current address without creating a string
+   *
+   * @param domain the domain to compare with
+   * @return true if the current address ends with {@code @domain}
+   */
+  public boolean hasDomain(String domain) {
+    int start = addressEnd - domain.length();
+    if (start < addressStart + 1 || line.charAt(start - 1) != '@') {
+      return false;
+    }
+    for (int i = 0; i < domain.length(); i++) {
+      if (line.charAt(start + i) != domain.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks that the argument is a single address, as required for the sender
+   *
+   * @return true if the argument is one word containing an '@'
+   */
+  public boolean isSingleAddress() {
+    if (argumentCount() != 1) {
+      return false;
+    }
+    for (int i = argumentStart; i < line.length(); i++) {
+      if (line.charAt(i) == '@') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whitespace test for arguments kept as UTF-8 bytes, it trims like {@link #argument()}: every byte of a multi-byte
+   * sequence is above 0x7f, so only ASCII whitespace has to be recognized
+   *
+   * @param b a byte of the UTF-8 encoded line
+   * @return true if the byte is whitespace
+   */
+  public static boolean isWhitespace(byte b) {
+    return b >= 0 && Character.isWhitespace(b);
+  }
+}
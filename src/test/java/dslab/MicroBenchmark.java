@@ -0,0 +1,55 @@
+package dslab;
+
+import java.util.Arrays;
+
+/**
+ * Minimal harness for the micro benchmarks in the test sources.
+ * <p>
+ * JMH is not available in the lab environment, so benchmarks are plain main methods: each round runs the
+ * measured body once, the first rounds only warm up the JIT. Results are reported as operations per second.
+ */
+public final class MicroBenchmark {
+
+    private MicroBenchmark() {
+        // util class
+    }
+
+    /**
+     * A measured body, executing the given number of operations per call.
+     */
+    @FunctionalInterface
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the body {@code warmupRounds + rounds} times and prints the median and best throughput of the measured
+     * rounds.
+     *
+     * @param name         name printed in front of the result
+     * @param operations   number of operations one execution of the body performs
+     * @param warmupRounds rounds that are not measured
+     * @param rounds       measured rounds
+     * @param body         the code to measure
+     * @return the median throughput in operations per second
+     * @throws Exception if the body throws
+     */
+    public static double measure(String name, long operations, int warmupRounds, int rounds, Body body)
+            throws Exception {
+        for (int i = 0; i < warmupRounds; i++) {
+            body.run();
+        }
+        double[] throughput = new double[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            body.run();
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            throughput[i] = operations * 1e9 / elapsed;
+        }
+        Arrays.sort(throughput);
+        double median = throughput[rounds / 2];
+        System.out.printf("%-40s %,15.0f ops/s (median)  %,15.0f ops/s (best)%n", name, median,
+                throughput[rounds - 1]);
+        return median;
+    }
+}
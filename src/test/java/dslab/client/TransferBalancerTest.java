@@ -0,0 +1,117 @@
+package dslab.client;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+
+/**
+ * TransferBalancerTest.
+ */
+public class TransferBalancerTest {
+
+    private final List<ServerSocket> servers = new ArrayList<>();
+    private Config config;
+
+    @Before
+    public void setUp() {
+        config = new Config("client-trillian");
+        config.setProperty("transfer.connect.timeout.ms", 1000);
+        config.setProperty("transfer.ejection.ms", 100);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ServerSocket server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void messages_goToTheLessBusyEndpoint() throws Exception {
+        config.setProperty("transfer.endpoints", "127.0.0.1:" + startStub(0) + ",127.0.0.1:" + startStub(0));
+        TransferBalancer balancer = new TransferBalancer(config);
+        TransferBalancer.Endpoint busy = balancer.getEndpoints().get(0);
+        TransferBalancer.Endpoint idle = balancer.getEndpoints().get(1);
+
+        Socket socket = busy.connect();
+        assertThat(busy.outstanding(), is(1));
+        for (int i = 0; i < 20; i++) {
+            assertThat(balancer.choose(Collections.emptyList()), is(idle));
+        }
+        socket.close();
+        busy.release();
+        assertThat(busy.outstanding(), is(0));
+        // only the endpoint not tried yet is left
+        assertThat(balancer.choose(List.of(idle)), is(busy));
+        assertThat(balancer.choose(List.of(idle, busy)), is(nullValue()));
+    }
+
+    @Test
+    public void unreachableEndpoint_isEjectedAndProbedBeforeItIsUsedAgain() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        int port = closed.getLocalPort();
+        closed.close();
+        config.setProperty("transfer.endpoints", "127.0.0.1:" + port + ",127.0.0.1:" + startStub(0));
+        TransferBalancer balancer = new TransferBalancer(config);
+        TransferBalancer.Endpoint down = balancer.getEndpoints().get(0);
+        TransferBalancer.Endpoint up = balancer.getEndpoints().get(1);
+
+        try {
+            down.connect().close();
+        } catch (IOException e) {
+            // refused, as expected
+        }
+        assertThat(down.isEjected(), is(true));
+        assertThat(down.outstanding(), is(0));
+        for (int i = 0; i < 20; i++) {
+            assertThat(balancer.choose(Collections.emptyList()), is(up));
+        }
+
+        // still down once the ejection is over: the probe fails and ejects it again
+        Thread.sleep(150);
+        assertThat(balancer.choose(List.of(up)), is(nullValue()));
+        assertThat(down.isEjected(), is(true));
+
+        startStub(port);
+        Thread.sleep(250);
+        assertThat(balancer.choose(List.of(up)), is(down));
+        assertThat(down.isEjected(), is(false));
+    }
+
+    // a transfer server that only greets its clients
+    private int startStub(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write("ok DMTP2.0\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        }, "stubTransfer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+}
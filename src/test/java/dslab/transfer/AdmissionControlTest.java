@@ -0,0 +1,61 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import dslab.util.Config;
+import dslab.util.datastructures.Email;
+
+/**
+ * AdmissionControlTest.
+ */
+public class AdmissionControlTest {
+
+    private final Email email = new Email("trillian@earth.planet", "arthur@earth.planet", "subject", "data");
+
+    private AdmissionControl create(int highMessages, int lowMessages, int highBytes, int lowBytes) {
+        Config config = new Config("transfer-1");
+        config.setProperty("admission.high.messages", highMessages);
+        config.setProperty("admission.low.messages", lowMessages);
+        config.setProperty("admission.high.bytes", highBytes);
+        config.setProperty("admission.low.bytes", lowBytes);
+        return new AdmissionControl(config);
+    }
+
+    @Test
+    public void messagesAboveHighWatermark_areRejectedUntilLowWatermark() {
+        AdmissionControl admission = create(3, 1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertThat(admission.tryAdmit(email), is(true));
+        assertThat(admission.tryAdmit(email), is(true));
+        assertThat(admission.tryAdmit(email), is(true));
+        assertThat(admission.isBusy(), is(true));
+        assertThat(admission.tryAdmit(email), is(false));
+
+        // still above the low watermark
+        admission.release(email);
+        assertThat(admission.tryAdmit(email), is(false));
+
+        admission.release(email);
+        assertThat(admission.isBusy(), is(false));
+        assertThat(admission.tryAdmit(email), is(true));
+        assertThat(admission.getAccepted(), is(4L));
+        assertThat(admission.getRejected(), is(2L));
+        assertThat(admission.getMessages(), is(2L));
+    }
+
+    @Test
+    public void bytesAboveHighWatermark_makeTheServerBusy() {
+        long size = AdmissionControl.sizeOf(email);
+        AdmissionControl admission = create(1000, 800, (int) (2 * size), (int) size);
+        admission.tryAdmit(email);
+        assertThat(admission.isBusy(), is(false));
+        admission.tryAdmit(email);
+        assertThat(admission.isBusy(), is(true));
+        assertThat(admission.getBytes(), is(2 * size));
+
+        admission.release(email);
+        assertThat(admission.isBusy(), is(false));
+    }
+}
@@ -0,0 +1,46 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import dslab.util.datastructures.Email;
+
+/**
+ * DeadLetterQueueTest.
+ */
+public class DeadLetterQueueTest {
+
+    private final Email email = new Email("trillian@earth.planet", "arthur@earth.planet", "subject", "data");
+
+    @Test
+    public void deadLetters_areListedAndRemovedById() {
+        DeadLetterQueue queue = new DeadLetterQueue(10);
+        DeadLetterQueue.DeadLetter first = queue.add(email, "earth.planet", "error unknown", 1, 1000);
+        DeadLetterQueue.DeadLetter second = queue.add(email, "univer.ze", "no response", 8, 2000);
+
+        assertThat(queue.size(), is(2));
+        assertThat(queue.list().get(0).getId(), is(first.getId()));
+        assertThat(second.getReason(), is("no response"));
+        assertThat(second.getAttempts(), is(8));
+
+        assertThat(queue.remove(first.getId()).getDomain(), is("earth.planet"));
+        assertThat(queue.remove(first.getId()), is(nullValue()));
+        assertThat(queue.removeAll().size(), is(1));
+        assertThat(queue.size(), is(0));
+    }
+
+    @Test
+    public void fullQueue_dropsTheOldestDeadLetter() {
+        DeadLetterQueue queue = new DeadLetterQueue(2);
+        DeadLetterQueue.DeadLetter first = queue.add(email, "a", "reason", 1, 0);
+        queue.add(email, "b", "reason", 1, 0);
+        queue.add(email, "c", "reason", 1, 0);
+
+        assertThat(queue.size(), is(2));
+        assertThat(queue.remove(first.getId()), is(nullValue()));
+        assertThat(queue.list().get(0).getDomain(), is("b"));
+    }
+}
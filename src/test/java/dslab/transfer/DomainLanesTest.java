@@ -0,0 +1,60 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * DomainLanesTest.
+ */
+public class DomainLanesTest {
+
+    private final DomainLanes lanes = new DomainLanes(4);
+
+    @After
+    public void tearDown() {
+        lanes.shutdown();
+    }
+
+    @Test
+    public void tasksOfOneDomain_runInSubmissionOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int task = i;
+            futures.add(lanes.submit("earth.planet", () -> order.add(task)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 50; i++) {
+            assertThat(order.get(i), is(i));
+        }
+    }
+
+    @Test
+    public void blockedDomain_doesNotDelayOtherDomains() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> slow = lanes.submit("earth.planet", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CompletableFuture<Void> fast = lanes.submit("univer.ze", () -> { });
+
+        fast.get(5, TimeUnit.SECONDS);
+        assertThat(slow.isDone(), is(false));
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,59 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dslab.transfer.spool.BodySpill;
+import dslab.util.Config;
+import dslab.util.datastructures.DataFile;
+import dslab.util.datastructures.Email;
+
+/**
+ * MessageDistributerTest.
+ */
+public class MessageDistributerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageDistributer messageDistributer;
+
+    @Before
+    public void setUp() throws Exception {
+        Config config = new Config("transfer-1");
+        config.setProperty("spool.dir", folder.getRoot().getAbsolutePath());
+        // the workers are not started, nothing is delivered
+        messageDistributer = new MessageDistributer(config);
+    }
+
+    @After
+    public void tearDown() {
+        messageDistributer.shutdown();
+    }
+
+    @Test
+    public void purgedDeadLetter_deletesItsSpilledBody() throws Exception {
+        BodySpill.Writer writer = messageDistributer.getBodySpill().create();
+        byte[] body = "a body too large to be kept in memory".getBytes(StandardCharsets.UTF_8);
+        writer.write(body, 0, body.length);
+        DataFile dataFile = writer.finish();
+        Email email = new Email.Builder().from("trillian@earth.planet").to("arthur@earth.planet,zaphod@univer.ze")
+                .subject("large").dataFile(dataFile).build();
+        messageDistributer.getDeadLetters().add(email, "earth.planet", "error unknown", 1, 0);
+        messageDistributer.getDeadLetters().add(email, "univer.ze", "error unknown", 1, 0);
+
+        assertThat(messageDistributer.purgeDeadLetters(), is(2));
+
+        assertThat(messageDistributer.getDeadLetters().size(), is(0));
+        assertThat(Files.exists(dataFile.getPath()), is(false));
+    }
+}
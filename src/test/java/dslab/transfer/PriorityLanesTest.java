@@ -0,0 +1,100 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+import dslab.util.datastructures.Email;
+
+/**
+ * PriorityLanesTest.
+ */
+public class PriorityLanesTest {
+
+    private Config config;
+
+    @Before
+    public void setUp() {
+        config = new Config("transfer-1");
+        config.setProperty("lanes.weight.system", 4);
+        config.setProperty("lanes.weight.interactive", 3);
+        config.setProperty("lanes.weight.bulk", 1);
+        config.setProperty("lanes.bulk.bytes", 1000);
+        config.setProperty("lanes.bulk.senders", "newsletter@univer.ze");
+    }
+
+    @Test
+    public void messages_areClassifiedBySizeAndSender() {
+        PriorityLanes lanes = new PriorityLanes(config, 16, false);
+        assertThat(lanes.classify(email("trillian@earth.planet", "hi")), is(PriorityLanes.Lane.INTERACTIVE));
+        assertThat(lanes.classify(email("trillian@earth.planet", "x".repeat(1000))), is(PriorityLanes.Lane.BULK));
+        assertThat(lanes.classify(email("newsletter@univer.ze", "hi")), is(PriorityLanes.Lane.BULK));
+    }
+
+    @Test
+    public void lanes_areServedByWeightedRoundRobin() throws Exception {
+        PriorityLanes lanes = new PriorityLanes(config, 16, true);
+        for (int i = 0; i < 8; i++) {
+            lanes.put(PriorityLanes.Lane.BULK, email("bulk", "" + i));
+            lanes.put(PriorityLanes.Lane.INTERACTIVE, email("interactive", "" + i));
+        }
+        assertThat(lanes.size(), is(16));
+
+        // 3 interactive messages per bulk message, the empty system lane is skipped
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            order.append(lanes.poll().getFrom().charAt(0));
+        }
+        assertThat(order.toString(), is("iibiiibi"));
+        assertThat(lanes.size(PriorityLanes.Lane.BULK), is(6));
+
+        // the remaining bulk messages are not held back once interactive is empty
+        for (int i = 0; i < 8; i++) {
+            lanes.poll();
+        }
+        assertThat(lanes.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentWorkers_takeEveryMessageOnce() throws Exception {
+        config.setProperty("lanes.system.size", 4096);
+        PriorityLanes lanes = new PriorityLanes(config, 4096, false);
+        PriorityLanes.Lane[] all = PriorityLanes.Lane.values();
+        for (int i = 0; i < 3000; i++) {
+            lanes.put(all[i % all.length], email("sender", "" + i));
+        }
+
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            Thread worker = new Thread(() -> {
+                Email email;
+                while ((email = lanes.poll()) != null) {
+                    taken.add(email.getData());
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertThat(taken.size(), is(3000));
+        assertThat(lanes.size(), is(0));
+    }
+
+    private Email email(String from, String data) {
+        return new Email(from, "arthur@earth.planet", "subject", data);
+    }
+}
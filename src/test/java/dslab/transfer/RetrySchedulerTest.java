@@ -0,0 +1,78 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+import dslab.util.datastructures.Email;
+
+/**
+ * RetrySchedulerTest.
+ */
+public class RetrySchedulerTest {
+
+    private final BlockingQueue<RetryScheduler.Retry> due = new LinkedBlockingQueue<>();
+    private Config config;
+    private RetryScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        config = new Config("transfer-1");
+        config.setProperty("retry.initial.delay.ms", 100);
+        config.setProperty("retry.multiplier", 2);
+        config.setProperty("retry.max.delay.ms", 400);
+        config.setProperty("retry.max.attempts", 3);
+        config.setProperty("retry.max.age.ms", 10000);
+        scheduler = new RetryScheduler(config, due::add);
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void delay_growsExponentiallyWithJitterUpToTheMaximum() {
+        for (int i = 0; i < 100; i++) {
+            long first = scheduler.delayFor(1);
+            assertThat(first >= 50 && first <= 100, is(true));
+            long second = scheduler.delayFor(2);
+            assertThat(second >= 100 && second <= 200, is(true));
+            long capped = scheduler.delayFor(10);
+            assertThat(capped >= 200 && capped <= 400, is(true));
+        }
+    }
+
+    @Test
+    public void scheduledRetry_isHandedOverWhenDue() throws Exception {
+        Email email = new Email("trillian@earth.planet", "zaphod@univer.ze", "subject", "data");
+        long firstAttempt = System.currentTimeMillis();
+        assertThat(scheduler.schedule(email, "univer.ze", 1, firstAttempt), is(true));
+        assertThat(scheduler.pending(), is(1));
+
+        RetryScheduler.Retry retry = due.poll(2, TimeUnit.SECONDS);
+        assertThat(retry.getEmail() == email, is(true));
+        assertThat(retry.getDomain(), is("univer.ze"));
+        assertThat(retry.getAttempts(), is(1));
+        assertThat(retry.getFirstAttempt(), is(firstAttempt));
+        assertThat(System.currentTimeMillis() - firstAttempt >= 50, is(true));
+    }
+
+    @Test
+    public void exhaustedRetries_areRefused() {
+        Email email = new Email("trillian@earth.planet", "zaphod@univer.ze", "subject", "data");
+        long now = System.currentTimeMillis();
+        assertThat(scheduler.schedule(email, "univer.ze", 3, now), is(false));
+        assertThat(scheduler.schedule(email, "univer.ze", 1, now - 10000), is(false));
+        assertThat(scheduler.pending(), is(0));
+    }
+}
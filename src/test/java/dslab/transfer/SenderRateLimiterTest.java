@@ -0,0 +1,76 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+
+/**
+ * SenderRateLimiterTest.
+ */
+public class SenderRateLimiterTest {
+
+    private Config config;
+
+    @Before
+    public void setUp() {
+        config = new Config("transfer-1");
+        config.setProperty("ratelimit.rate", 1);
+        config.setProperty("ratelimit.burst", 3);
+        config.setProperty("ratelimit.stripes", 1);
+        config.setProperty("ratelimit.max.senders", 100);
+    }
+
+    @Test
+    public void sender_isThrottledAfterItsBurst() {
+        SenderRateLimiter limiter = new SenderRateLimiter(config);
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("trillian@earth.planet"), is(true));
+        }
+        assertThat(limiter.tryAcquire("trillian@earth.planet"), is(false));
+        // other senders have their own bucket
+        assertThat(limiter.tryAcquire("arthur@earth.planet"), is(true));
+        assertThat(limiter.getThrottled(), is(1L));
+        assertThat(limiter.trackedSenders(), is(2));
+    }
+
+    @Test
+    public void releasedToken_canBeTakenAgain() {
+        SenderRateLimiter limiter = new SenderRateLimiter(config);
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("trillian@earth.planet"), is(true));
+        }
+        // the last message was answered with error busy, the client sends it again
+        limiter.release("trillian@earth.planet");
+
+        assertThat(limiter.tryAcquire("trillian@earth.planet"), is(true));
+        assertThat(limiter.tryAcquire("trillian@earth.planet"), is(false));
+    }
+
+    @Test
+    public void fullBuckets_areDropped() throws Exception {
+        config.setProperty("ratelimit.rate", 1000);
+        config.setProperty("ratelimit.burst", 1);
+        config.setProperty("ratelimit.max.senders", 1);
+        SenderRateLimiter limiter = new SenderRateLimiter(config);
+        assertThat(limiter.tryAcquire("trillian@earth.planet"), is(true));
+        assertThat(limiter.tryAcquire("trillian@earth.planet"), is(false));
+        // after a millisecond the bucket is full again and makes room for the next sender
+        Thread.sleep(5);
+        assertThat(limiter.tryAcquire("arthur@earth.planet"), is(true));
+        assertThat(limiter.trackedSenders(), is(1));
+    }
+
+    @Test
+    public void zeroRate_disablesTheLimit() {
+        config.setProperty("ratelimit.rate", 0);
+        SenderRateLimiter limiter = new SenderRateLimiter(config);
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.tryAcquire("trillian@earth.planet"), is(true));
+        }
+        assertThat(limiter.trackedSenders(), is(0));
+    }
+}
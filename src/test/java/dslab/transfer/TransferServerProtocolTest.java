@@ -55,6 +55,33 @@ public class TransferServerProtocolTest extends TestBase {
         }
     }
 
+    @Test(timeout = 15000)
+    public void batchSubmission_returnsOneStatusPerMessage() throws Exception {
+        try (JunitSocketClient client = new JunitSocketClient(serverPort, err)) {
+            client.verify("ok DMTP");
+            client.sendAndVerify("batch 3", "ok 3");
+            client.send("from trillian@earth.planet");
+            client.send("to arthur@earth.planet");
+            client.send("subject first");
+            client.send("data hello from junit");
+            client.send("send");
+            client.send("from trillian@earth.planet");
+            client.send("subject incomplete");
+            client.send("send");
+            client.send("from trillian@earth.planet");
+            client.send("to arthur@earth.planet,zaphod@univer.ze");
+            client.send("subject third");
+            client.send("data hello from junit");
+            client.send("send");
+            client.verify("1 ok");
+            client.verify("2 error");
+            client.verify("3 ok");
+            // back in normal mode
+            client.sendAndVerify("begin", "ok");
+            client.sendAndVerify("quit", "ok bye");
+        }
+    }
+
     @Test(timeout = 15000)
     public void sendWithoutRecipient_returnsErrorOnSend() throws Exception {
         try (JunitSocketClient client = new JunitSocketClient(serverPort, err)) {
@@ -0,0 +1,65 @@
+package dslab.transfer.connection;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+
+/**
+ * CircuitBreakerTest.
+ */
+public class CircuitBreakerTest {
+
+    private static final String ADDRESS = "127.0.0.1:11322";
+
+    private Config config;
+
+    @Before
+    public void setUp() {
+        config = new Config("transfer-1");
+        config.setProperty("breaker.window", 4);
+        config.setProperty("breaker.min.calls", 4);
+        config.setProperty("breaker.failure.rate", 50);
+        config.setProperty("breaker.open.ms", 100);
+    }
+
+    @Test
+    public void circuit_opensAtTheFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        breaker.onSuccess(ADDRESS);
+        breaker.onFailure(ADDRESS);
+        breaker.onSuccess(ADDRESS);
+        // only 3 outcomes, below breaker.min.calls
+        assertThat(breaker.getState(ADDRESS), is(CircuitBreaker.State.CLOSED));
+        breaker.onFailure(ADDRESS);
+        assertThat(breaker.getState(ADDRESS), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.allow(ADDRESS), is(false));
+        // other addresses are not affected
+        assertThat(breaker.allow("127.0.0.1:11324"), is(true));
+    }
+
+    @Test
+    public void halfOpenCircuit_letsOneProbeThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(config);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(ADDRESS);
+        }
+        assertThat(breaker.allow(ADDRESS), is(false));
+        Thread.sleep(150);
+
+        assertThat(breaker.getState(ADDRESS), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(breaker.allow(ADDRESS), is(true));
+        assertThat(breaker.allow(ADDRESS), is(false));
+        breaker.onFailure(ADDRESS);
+        assertThat(breaker.getState(ADDRESS), is(CircuitBreaker.State.OPEN));
+        Thread.sleep(150);
+
+        assertThat(breaker.allow(ADDRESS), is(true));
+        breaker.onSuccess(ADDRESS);
+        assertThat(breaker.getState(ADDRESS), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.allow(ADDRESS), is(true));
+    }
+}
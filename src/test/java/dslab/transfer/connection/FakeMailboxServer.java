@@ -0,0 +1,108 @@
+package dslab.transfer.connection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A mailbox server on a local port that greets its clients and answers each request line with the response of a
+ * script, for tests of the outbound connections of the transfer server.
+ */
+class FakeMailboxServer implements AutoCloseable {
+
+    /**
+     * Answers every request with {@code ok} and {@code quit} with {@code ok bye}
+     */
+    static final Function<String, String> OK = line -> line.equals("quit") ? "ok bye" : "ok";
+
+    private final ServerSocket serverSocket;
+    private final String greeting;
+    private final Function<String, String> script;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param greeting sent to every client once it connected, null to never greet
+     * @param script   response to a request line, null to close the connection instead
+     */
+    FakeMailboxServer(String greeting, Function<String, String> script) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.greeting = greeting;
+        this.script = script;
+        Thread acceptor = new Thread(this::accept, "fakeMailbox");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getAddress() {
+        return "127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    int accepted() {
+        return accepted.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                accepted.incrementAndGet();
+                sockets.add(socket);
+                Thread session = new Thread(() -> serve(socket), "fakeMailboxSession");
+                session.setDaemon(true);
+                session.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            if (greeting == null) {
+                // hold the connection open without a word until the test closes it
+                while (in.readLine() != null) {
+                    continue;
+                }
+                return;
+            }
+            out.println(greeting);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String response = script.apply(line);
+                if (response == null) {
+                    return;
+                }
+                out.println(response);
+                if (line.equals("quit")) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+}
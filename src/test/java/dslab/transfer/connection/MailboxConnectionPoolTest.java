@@ -0,0 +1,114 @@
+package dslab.transfer.connection;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+
+/**
+ * MailboxConnectionPoolTest.
+ */
+public class MailboxConnectionPoolTest {
+
+    private Config config;
+    private MailboxConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        config = new Config("transfer-1");
+        config.setProperty("pool.max.per.host", 1);
+        config.setProperty("pool.connect.timeout.ms", 500);
+        config.setProperty("pool.borrow.timeout.ms", 200);
+        config.setProperty("pool.idle.timeout.ms", 100);
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void releasedConnection_isReused() throws Exception {
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", FakeMailboxServer.OK)) {
+            pool = new MailboxConnectionPool(config);
+
+            MailboxConnection first = pool.borrow(mailbox.getAddress());
+            pool.release(first);
+            MailboxConnection second = pool.borrow(mailbox.getAddress());
+
+            assertThat(second, is(sameInstance(first)));
+            assertThat(mailbox.accepted(), is(1));
+            pool.release(second);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void idleConnection_isEvicted() throws Exception {
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", FakeMailboxServer.OK)) {
+            pool = new MailboxConnectionPool(config);
+
+            MailboxConnection first = pool.borrow(mailbox.getAddress());
+            pool.release(first);
+            // the evictor runs once per second at most
+            Thread.sleep(2500);
+
+            assertThat(first.isAlive(), is(false));
+            MailboxConnection second = pool.borrow(mailbox.getAddress());
+            assertThat(second, is(not(sameInstance(first))));
+            assertThat(mailbox.accepted(), is(2));
+            pool.release(second);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void invalidatedConnection_releasesItsPermit() throws Exception {
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", FakeMailboxServer.OK)) {
+            pool = new MailboxConnectionPool(config);
+
+            MailboxConnection borrowed = pool.borrow(mailbox.getAddress());
+            try {
+                pool.borrow(mailbox.getAddress());
+                fail("borrowed more connections than pool.max.per.host");
+            } catch (IOException e) {
+                assertThat(e.getMessage(), containsString("no free connection"));
+            }
+            pool.invalidate(borrowed);
+
+            MailboxConnection replacement = pool.borrow(mailbox.getAddress());
+            assertThat(replacement.isAlive(), is(true));
+            pool.release(replacement);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void silentMailboxServer_timesOutAndReleasesThePermit() throws Exception {
+        try (FakeMailboxServer mailbox = new FakeMailboxServer(null, FakeMailboxServer.OK)) {
+            pool = new MailboxConnectionPool(config);
+
+            for (int i = 0; i < 2; i++) {
+                long start = System.currentTimeMillis();
+                try {
+                    pool.borrow(mailbox.getAddress());
+                    fail("connected without a greeting");
+                } catch (IOException e) {
+                    // a permit kept by the first attempt would fail the second one with "no free connection"
+                    assertThat(e.getMessage(), not(containsString("no free connection")));
+                }
+                assertTrue(System.currentTimeMillis() - start < 2000);
+            }
+        }
+    }
+}
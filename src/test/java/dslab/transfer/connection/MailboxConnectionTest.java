@@ -0,0 +1,109 @@
+package dslab.transfer.connection;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import dslab.util.datastructures.Email;
+
+/**
+ * MailboxConnectionTest.
+ */
+public class MailboxConnectionTest {
+
+    private static final int TIMEOUT_MS = 2000;
+    private static final Function<String, String> REJECT_FORD = line ->
+            line.equals("to ford@earth.planet") ? "error unknown recipient ford" : FakeMailboxServer.OK.apply(line);
+
+    @Test(timeout = 10000)
+    public void pipelinedTransactions_areAnsweredInOrder() throws Exception {
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", FakeMailboxServer.OK)) {
+            MailboxConnection connection = new MailboxConnection(mailbox.getAddress(), TIMEOUT_MS, 0);
+
+            List<CompletableFuture<TransactionResult>> results = connection.send(
+                    List.of(email("arthur@earth.planet", "first"), email("arthur@earth.planet", "second")));
+
+            for (CompletableFuture<TransactionResult> result : results) {
+                TransactionResult transaction = result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                assertThat(transaction.isSuccess(), is(true));
+                assertThat(transaction.getResponses().size(), is(6));
+            }
+            assertThat(connection.isIdle(), is(true));
+            connection.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedRecipient_failsOnlyItsTransaction() throws Exception {
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", REJECT_FORD)) {
+            MailboxConnection connection = new MailboxConnection(mailbox.getAddress(), TIMEOUT_MS, 0);
+
+            List<CompletableFuture<TransactionResult>> results = connection.send(List.of(
+                    email("ford@earth.planet", "rejected"), email("arthur@earth.planet", "accepted")));
+
+            TransactionResult rejected = results.get(0).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertThat(rejected.isSuccess(), is(false));
+            assertThat(rejected.isTransient(), is(false));
+            assertThat(rejected.getFailure(), is("error unknown recipient ford"));
+            assertThat(results.get(1).get(TIMEOUT_MS, TimeUnit.MILLISECONDS).isSuccess(), is(true));
+            assertThat(connection.isAlive(), is(true));
+            connection.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void disconnectInTheMiddleOfABatch_failsTheRemainingTransactions() throws Exception {
+        // the mailbox server goes away while it reads the second transaction
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", line ->
+                line.equals("subject crash") ? null : FakeMailboxServer.OK.apply(line))) {
+            MailboxConnection connection = new MailboxConnection(mailbox.getAddress(), TIMEOUT_MS, 0);
+
+            List<CompletableFuture<TransactionResult>> results = connection.send(List.of(
+                    email("arthur@earth.planet", "before"), email("arthur@earth.planet", "crash"),
+                    email("arthur@earth.planet", "after")));
+
+            assertThat(results.get(0).get(TIMEOUT_MS, TimeUnit.MILLISECONDS).isSuccess(), is(true));
+            for (CompletableFuture<TransactionResult> result : results.subList(1, 3)) {
+                TransactionResult lost = result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                assertThat(lost.isSuccess(), is(false));
+                assertThat(lost.isTransient(), is(true));
+                assertThat(lost.getFailure(), containsString("lost"));
+            }
+            assertThat(connection.isAlive(), is(false));
+            connection.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void hashLine_isAnsweredAsPartOfItsTransaction() throws Exception {
+        // the unsigned transaction after the signed one is rejected, which only shows up if the hash response was
+        // counted to the signed transaction
+        try (FakeMailboxServer mailbox = new FakeMailboxServer("ok DMTP", REJECT_FORD)) {
+            MailboxConnection connection = new MailboxConnection(mailbox.getAddress(), TIMEOUT_MS, 0);
+            Email signed = new Email.Builder().from("trillian@earth.planet").to("arthur@earth.planet")
+                    .subject("signed").data("hello").hash("nOiOHSqL3bBUCGZSB6kNCLAjjyOMmbgqcpHpmjSrCwo=").build();
+
+            List<CompletableFuture<TransactionResult>> results = connection.send(
+                    List.of(signed, email("ford@earth.planet", "unsigned")));
+
+            TransactionResult first = results.get(0).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertThat(first.isSuccess(), is(true));
+            assertThat(first.getResponses().size(), is(7));
+            TransactionResult second = results.get(1).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertThat(second.getFailure(), is("error unknown recipient ford"));
+            assertThat(second.getResponses().size(), is(6));
+            connection.close();
+        }
+    }
+
+    private static Email email(String to, String subject) {
+        return new Email("trillian@earth.planet", to, subject, "hello from junit");
+    }
+}
@@ -0,0 +1,154 @@
+package dslab.transfer.connection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import dslab.MicroBenchmark;
+import dslab.util.datastructures.Email;
+
+/**
+ * Compares relaying a received body to a mailbox server the way the transfer server did before (decode the body to
+ * a String, concatenate each line and print it through a {@link PrintWriter}) with the gathering write of
+ * {@link MailboxConnection}, which writes the received bytes as they are.
+ * <p>
+ * The mailbox server is a loopback stub answering {@code ok} to every line, so the numbers are dominated by the work
+ * of the sending side. Every round relays its messages in pipelined groups of {@value #GROUP}.
+ * <p>
+ * Run with {@code java -cp <test classpath> dslab.transfer.connection.MailboxRelayBenchmark}.
+ */
+public class MailboxRelayBenchmark {
+
+    private static final int GROUP = 16;
+    private static final int LINES = 6;
+    // keeps the results alive, so the JIT cannot drop the relaying
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            Thread acceptor = new Thread(() -> acceptAll(server), "stubMailbox");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            String address = "127.0.0.1:" + server.getLocalPort();
+
+            run(address, 1024, 16_000);
+            run(address, 64 * 1024, 1_600);
+            run(address, 1024 * 1024, 160);
+        }
+        System.out.println(sink);
+    }
+
+    private static void run(String address, int bodySize, int messages) throws Exception {
+        byte[] body = body(bodySize);
+        String name = (bodySize >= 1024 * 1024 ? bodySize / (1024 * 1024) + " MB" : bodySize / 1024 + " KB");
+
+        try (Socket socket = new Socket("127.0.0.1", Integer.parseInt(address.split(":")[1]))) {
+            socket.setTcpNoDelay(true);
+            PrintWriter out = new PrintWriter(socket.getOutputStream());
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            in.readLine();
+            MicroBenchmark.measure("PrintWriter " + name, messages, 2, 5, () -> {
+                for (int sent = 0; sent < messages; sent += GROUP) {
+                    for (int i = 0; i < GROUP; i++) {
+                        // the body as the handler used to keep it
+                        String data = new String(body, StandardCharsets.UTF_8);
+                        out.println("begin");
+                        out.println("to " + "arthur@earth.planet");
+                        out.println("from " + "trillian@earth.planet");
+                        out.println("subject " + "relay");
+                        out.println("data " + data);
+                        out.println("send");
+                    }
+                    out.flush();
+                    for (int i = 0; i < GROUP * LINES; i++) {
+                        sink += in.readLine().length();
+                    }
+                }
+            });
+        }
+
+        MailboxConnection connection = new MailboxConnection(address, 1000, 0);
+        try {
+            MicroBenchmark.measure("gathering write " + name, messages, 2, 5, () -> {
+                for (int sent = 0; sent < messages; sent += GROUP) {
+                    List<Email> emails = new ArrayList<>(GROUP);
+                    for (int i = 0; i < GROUP; i++) {
+                        emails.add(new Email.Builder().from("trillian@earth.planet").to("arthur@earth.planet")
+                                .subject("relay").dataBytes(body).build());
+                    }
+                    for (CompletableFuture<TransactionResult> result : connection.send(emails)) {
+                        sink += result.get().isSuccess() ? 1 : 0;
+                    }
+                }
+            });
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static byte[] body(int size) {
+        // mostly ASCII with some umlauts, as a text body would be
+        String words = "Don't panic, the answer is 42. Gr\u00fc\u00dfe aus \u00d6sterreich! ";
+        StringBuilder body = new StringBuilder(size);
+        while (body.length() < size) {
+            body.append(words);
+        }
+        return body.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void acceptAll(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread stub = new Thread(() -> answer(socket), "stubMailboxSession");
+                stub.setDaemon(true);
+                stub.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    // greets and answers every line with ok, without looking at it
+    private static void answer(Socket socket) {
+        byte[] ok = "ok\n".getBytes(StandardCharsets.US_ASCII);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            out.write("ok DMTP2.0\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                int lines = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+                if (lines > 0) {
+                    byte[] responses = new byte[lines * ok.length];
+                    for (int i = 0; i < lines; i++) {
+                        System.arraycopy(ok, 0, responses, i * ok.length, ok.length);
+                    }
+                    out.write(responses);
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // session ends with the benchmark
+        }
+    }
+}
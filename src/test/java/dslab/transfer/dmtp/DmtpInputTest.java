@@ -0,0 +1,145 @@
+package dslab.transfer.dmtp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dslab.transfer.spool.BodySpill;
+import dslab.util.Config;
+
+/**
+ * DmtpInputTest.
+ */
+public class DmtpInputTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linesSplitOverManySmallReads_areTakenInOrder() throws Exception {
+        StringBuilder sent = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String line = "subject line " + i + " " + "x".repeat(i % 300);
+            expected.add(line);
+            sent.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        byte[] bytes = sent.toString().getBytes(StandardCharsets.UTF_8);
+
+        DmtpInput input = new DmtpInput(null);
+        List<String> taken = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += 7) {
+            int end = Math.min(bytes.length, offset + 7);
+            input.append(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, end)));
+            while (input.next()) {
+                taken.add(input.line());
+            }
+        }
+
+        assertThat(taken, is(expected));
+        assertThat(input.error(), is(nullValue()));
+    }
+
+    @Test(timeout = 10000)
+    public void longLineReceivedInSmallReads_isTakenAsOneLine() throws Exception {
+        String line = "subject " + "y".repeat(DmtpInput.MAX_LINE_LENGTH - 100);
+        byte[] bytes = (line + "\nquit\n").getBytes(StandardCharsets.UTF_8);
+
+        DmtpInput input = new DmtpInput(null);
+        List<String> taken = new ArrayList<>();
+        // one byte per read scanned the whole buffer again and again when the scan position was not kept
+        for (int offset = 0; offset < bytes.length; offset += 64) {
+            input.append(ByteBuffer.wrap(bytes, offset, Math.min(64, bytes.length - offset)));
+            while (input.next()) {
+                taken.add(input.line());
+            }
+        }
+
+        assertThat(taken, is(List.of(line, "quit")));
+    }
+
+    @Test
+    public void lineLongerThanTheLimit_isAnError() throws Exception {
+        DmtpInput input = new DmtpInput(null);
+        input.append(ByteBuffer.wrap(new byte[DmtpInput.MAX_LINE_LENGTH + 1]));
+
+        assertThat(input.next(), is(false));
+        assertThat(input.error(), is("error line too long"));
+    }
+
+    @Test
+    public void spilledBodyOfACrlfClient_isTrimmedLikeABodyInMemory() throws Exception {
+        Config config = new Config("transfer-1");
+        File bodies = folder.newFolder("bodies");
+        config.setProperty("spill.dir", bodies.getAbsolutePath());
+        config.setProperty("spill.threshold", 16);
+        String body = "a body longer than the spill threshold";
+
+        DmtpInput input = new DmtpInput(new BodySpill(config));
+        // the spill starts with the buffered part, the rest is streamed, the \r and the \n arrive in different reads
+        input.append(ascii("data   " + body.substring(0, 20)));
+        assertThat(input.next(), is(false));
+        assertThat(input.isSpilling(), is(true));
+        input.append(ascii(body.substring(20) + "\r"));
+        input.append(ascii("\nquit\r\n"));
+
+        assertThat(input.next(), is(true));
+        assertThat(input.line(), is(nullValue()));
+        File[] spilled = bodies.listFiles();
+        assertThat(spilled.length, is(1));
+        assertThat(new String(Files.readAllBytes(spilled[0].toPath()), StandardCharsets.UTF_8), is(body));
+        assertThat(input.next(), is(true));
+        assertThat(input.line(), is("quit"));
+    }
+
+    @Test
+    public void completeSpilledLineOfACrlfClient_isTrimmedLikeABodyInMemory() throws Exception {
+        Config config = new Config("transfer-1");
+        File bodies = folder.newFolder("bodies");
+        config.setProperty("spill.dir", bodies.getAbsolutePath());
+        config.setProperty("spill.threshold", 16);
+        String body = "a body longer than the spill threshold";
+
+        DmtpInput input = new DmtpInput(new BodySpill(config));
+        input.append(ascii("data \t " + body + " \r\n"));
+
+        assertThat(input.next(), is(true));
+        File[] spilled = bodies.listFiles();
+        assertThat(new String(Files.readAllBytes(spilled[0].toPath()), StandardCharsets.UTF_8), is(body));
+    }
+
+    @Test
+    public void carriageReturnInsideASpilledBody_isKept() throws Exception {
+        Config config = new Config("transfer-1");
+        File bodies = folder.newFolder("bodies");
+        config.setProperty("spill.dir", bodies.getAbsolutePath());
+        config.setProperty("spill.threshold", 16);
+
+        DmtpInput input = new DmtpInput(new BodySpill(config));
+        input.append(ascii("data a body longer than the threshold\r"));
+        assertThat(input.next(), is(false));
+        input.append(ascii("continued\r"));
+        input.append(ascii("\n"));
+
+        assertThat(input.next(), is(true));
+        File[] spilled = bodies.listFiles();
+        assertThat(new String(Files.readAllBytes(spilled[0].toPath()), StandardCharsets.UTF_8),
+                is("a body longer than the threshold\rcontinued"));
+    }
+
+    private static ByteBuffer ascii(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+    }
+}
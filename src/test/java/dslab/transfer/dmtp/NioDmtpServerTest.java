@@ -0,0 +1,111 @@
+package dslab.transfer.dmtp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dslab.Constants;
+import dslab.JunitSocketClient;
+import dslab.Sockets;
+import dslab.transfer.MessageDistributer;
+import dslab.util.Config;
+
+/**
+ * NioDmtpServerTest.
+ */
+public class NioDmtpServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MessageDistributer messageDistributer;
+    private NioDmtpServer server;
+    private int serverPort;
+
+    @Before
+    public void setUp() throws Exception {
+        Config config = new Config("transfer-1");
+        config.setProperty("spool.dir", folder.getRoot().getAbsolutePath());
+        config.setProperty("spool.segment.size", 4096);
+        config.setProperty("dmtp.nio.selectors", 2);
+        serverPort = config.getInt("tcp.port");
+        // the workers are not started, accepted messages just wait in the queue
+        messageDistributer = new MessageDistributer(config);
+        server = new NioDmtpServer(serverPort, messageDistributer, config);
+        server.start();
+        Sockets.waitForSocket("localhost", serverPort, Constants.COMPONENT_STARTUP_WAIT);
+    }
+
+    @After
+    public void tearDown() {
+        server.stopThread();
+        messageDistributer.shutdown();
+    }
+
+    @Test(timeout = 15000)
+    public void dmtpInteraction_isHandledBySelectorThreads() throws Exception {
+        try (JunitSocketClient client = new JunitSocketClient(serverPort)) {
+            client.verify("ok DMTP");
+            client.sendAndVerify("begin", "ok");
+            client.sendAndVerify("from trillian@earth.planet", "ok");
+            client.sendAndVerify("to arthur@earth.planet,zaphod@univer.ze", "ok 2");
+            client.sendAndVerify("subject hello", "ok");
+            client.sendAndVerify("data hello from junit", "ok");
+            client.sendAndVerify("send", "ok");
+            client.sendAndVerify("quit", "ok bye");
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void pipelinedRequests_areAnsweredInOrder() throws Exception {
+        try (JunitSocketClient client = new JunitSocketClient(serverPort)) {
+            client.verify("ok DMTP");
+            // all requests arrive in one segment, the send in the middle is executed by a handler thread
+            client.getWriter().print("begin\r\nfrom trillian@earth.planet\r\nto arthur@earth.planet\r\n"
+                    + "subject s\r\ndata d\r\nsend\r\nbegin\r\nsend\r\nquit\r\n");
+            client.getWriter().flush();
+            String[] expected = {"ok", "ok", "ok 1", "ok", "ok", "ok", "ok", "error", "ok bye"};
+            for (String response : expected) {
+                assertThat(client.read(), is(response));
+            }
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void largeBody_isSpilledToDisk() throws Exception {
+        String body = "x".repeat(300 * 1024);
+        try (JunitSocketClient client = new JunitSocketClient(serverPort)) {
+            client.verify("ok DMTP");
+            client.sendAndVerify("begin", "ok");
+            client.sendAndVerify("from trillian@earth.planet", "ok");
+            client.sendAndVerify("to arthur@earth.planet", "ok 1");
+            client.sendAndVerify("subject large", "ok");
+            client.sendAndVerify("data " + body + " ", "ok");
+            client.sendAndVerify("send", "ok");
+            client.sendAndVerify("quit", "ok bye");
+        }
+        // the queued message only refers to its body
+        File[] bodies = new File(folder.getRoot(), "bodies").listFiles();
+        assertThat(bodies.length, is(1));
+        assertThat(bodies[0].length(), is((long) body.length()));
+    }
+
+    @Test(timeout = 15000)
+    public void drain_waitsForClientsAndDisconnectsTheRest() throws Exception {
+        try (JunitSocketClient quitting = new JunitSocketClient(serverPort);
+             JunitSocketClient idle = new JunitSocketClient(serverPort)) {
+            quitting.verify("ok DMTP");
+            idle.verify("ok DMTP");
+            quitting.sendAndVerify("quit", "ok bye");
+            // only the idle client is still connected when the timeout elapses
+            assertThat(server.drain(500), is(1));
+        }
+    }
+}
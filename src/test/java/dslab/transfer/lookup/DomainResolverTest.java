@@ -0,0 +1,40 @@
+package dslab.transfer.lookup;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import dslab.util.Config;
+
+/**
+ * DomainResolverTest.
+ */
+public class DomainResolverTest {
+
+    @Test
+    public void unreachableNameserver_isALookupErrorNotAnUnknownDomain() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = unused.getLocalPort();
+        }
+        Config config = new Config("transfer-1");
+        config.setProperty("registry.host", "127.0.0.1");
+        config.setProperty("registry.port", port);
+        DomainResolver resolver = new DomainResolver(config);
+
+        try {
+            resolver.resolve("earth.planet");
+            fail("expected a lookup error");
+        } catch (LookupException e) {
+            // the domain may exist, it is tried again later
+        }
+        // errors are not cached as unknown domains
+        assertThat(resolver.getCache().get("earth.planet"), is(nullValue()));
+    }
+}
@@ -0,0 +1,61 @@
+package dslab.transfer.lookup;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * ResolutionCacheTest.
+ */
+public class ResolutionCacheTest {
+
+    @Test
+    public void cachedAddress_isReturnedAndCountedAsHit() {
+        ResolutionCache cache = new ResolutionCache(60000, 60000, 10);
+        cache.put("earth.planet", "127.0.0.1:11322");
+
+        ResolutionCache.Resolution resolution = cache.get("earth.planet");
+        assertThat(resolution, is(notNullValue()));
+        assertThat(resolution.getAddress(), is("127.0.0.1:11322"));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(0L));
+    }
+
+    @Test
+    public void unknownDomain_isCachedNegatively() {
+        ResolutionCache cache = new ResolutionCache(60000, 60000, 10);
+        assertThat(cache.get("mars.planet"), is(nullValue()));
+        cache.putNegative("mars.planet");
+
+        ResolutionCache.Resolution resolution = cache.get("mars.planet");
+        assertThat(resolution.isNegative(), is(true));
+        assertThat(cache.getNegativeHits(), is(1L));
+        assertThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    public void expiredEntry_isAMiss() throws Exception {
+        ResolutionCache cache = new ResolutionCache(1, 1, 10);
+        cache.put("earth.planet", "127.0.0.1:11322");
+        Thread.sleep(5);
+
+        assertThat(cache.get("earth.planet"), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void exceedingMaxSize_evictsLeastRecentlyUsed() {
+        ResolutionCache cache = new ResolutionCache(60000, 60000, 2);
+        cache.put("earth.planet", "127.0.0.1:11322");
+        cache.put("univer.ze", "127.0.0.1:11324");
+        cache.get("earth.planet");
+        cache.put("mars.planet", "127.0.0.1:11326");
+
+        assertThat(cache.get("univer.ze"), is(nullValue()));
+        assertThat(cache.get("earth.planet"), is(notNullValue()));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+}
@@ -0,0 +1,39 @@
+package dslab.transfer.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * LatencyHistogramTest.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverAllValuesWithBoundedError() {
+        for (long value : new long[]{0, 1, 63, 64, 65, 127, 128, 1000, 123456789L, LatencyHistogram.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertThat(value + " <= " + highest, highest >= value, is(true));
+            assertThat(value + " within 1/32 of " + highest, highest - value <= value / 32, is(true));
+            assertThat(LatencyHistogram.indexOf(highest), is(index));
+        }
+    }
+
+    @Test
+    public void percentiles_areReadFromTheBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.percentile(99), is(0L));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-5);
+
+        assertThat(histogram.count(), is(1001L));
+        assertThat(histogram.max(), is(1000000L));
+        assertThat(Math.abs(histogram.percentile(50) - 500000) <= 500000 / 32, is(true));
+        assertThat(Math.abs(histogram.percentile(99) - 990000) <= 990000 / 32, is(true));
+        assertThat(histogram.percentile(100), is(1000000L));
+    }
+}
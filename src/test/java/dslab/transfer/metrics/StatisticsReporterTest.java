@@ -0,0 +1,88 @@
+package dslab.transfer.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.util.Config;
+
+/**
+ * StatisticsReporterTest.
+ */
+public class StatisticsReporterTest {
+
+    private DatagramSocket monitoring;
+    private Config config;
+
+    @Before
+    public void setUp() throws Exception {
+        monitoring = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        monitoring.setSoTimeout(5000);
+        config = new Config("transfer-1");
+        config.setProperty("monitoring.host", "127.0.0.1");
+        config.setProperty("monitoring.port", monitoring.getLocalPort());
+    }
+
+    @After
+    public void tearDown() {
+        monitoring.close();
+    }
+
+    @Test
+    public void records_arePackedIntoFewDatagrams() throws Exception {
+        config.setProperty("statistics.datagram.size", 1400);
+        config.setProperty("statistics.flush.ms", 200);
+        StatisticsReporter reporter = new StatisticsReporter(config);
+        for (int i = 0; i < 100; i++) {
+            assertThat(reporter.report("127.0.0.1:11320", "sender" + i + "@earth.planet"), is(true));
+        }
+        reporter.start();
+
+        List<String> received = new ArrayList<>();
+        int datagrams = 0;
+        while (received.size() < 100) {
+            byte[] buffer = new byte[65507];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            monitoring.receive(packet);
+            assertThat(packet.getLength() <= 1400, is(true));
+            for (String line : new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8).split("\n")) {
+                received.add(line);
+            }
+            datagrams++;
+        }
+        reporter.close();
+
+        assertThat(received.get(0), is("127.0.0.1:11320 sender0@earth.planet"));
+        assertThat(received.get(99), is("127.0.0.1:11320 sender99@earth.planet"));
+        // every record is 36 or 37 bytes long
+        assertThat(datagrams <= 3, is(true));
+        assertThat(reporter.sentRecords(), is(100L));
+        assertThat(reporter.sentDatagrams(), is((long) datagrams));
+    }
+
+    @Test
+    public void pendingRecords_areSentOnClose() throws Exception {
+        config.setProperty("statistics.flush.ms", 60000);
+        StatisticsReporter reporter = new StatisticsReporter(config);
+        reporter.start();
+        reporter.report("127.0.0.1:11320", "arthur@earth.planet");
+        reporter.report("127.0.0.1:11320", "trillian@earth.planet");
+        reporter.close();
+
+        byte[] buffer = new byte[65507];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        monitoring.receive(packet);
+        assertThat(new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8),
+                is("127.0.0.1:11320 arthur@earth.planet\n127.0.0.1:11320 trillian@earth.planet\n"));
+    }
+}
@@ -0,0 +1,145 @@
+package dslab.transfer.spool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dslab.util.Config;
+import dslab.util.datastructures.DataFile;
+import dslab.util.datastructures.Email;
+
+/**
+ * SpoolJournalTest.
+ */
+public class SpoolJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Config config;
+
+    @Before
+    public void setUp() throws Exception {
+        config = new Config("transfer-1");
+        config.setProperty("spool.dir", folder.getRoot().getAbsolutePath());
+        config.setProperty("spool.segment.size", 256);
+        config.setProperty("spool.fsync", "always");
+    }
+
+    @Test
+    public void undeliveredMessages_areRecoveredInOrder() throws Exception {
+        SpoolJournal journal = new SpoolJournal(config);
+        assertThat(journal.recover().size(), is(0));
+        Email first = email("first");
+        Email second = email("second");
+        Email third = email("third");
+        journal.append(first);
+        journal.append(second);
+        journal.append(third);
+        journal.markDelivered(second);
+        journal.close();
+
+        SpoolJournal reopened = new SpoolJournal(config);
+        List<Email> recovered = reopened.recover();
+        assertThat(recovered.size(), is(2));
+        assertThat(recovered.get(0).getSubject(), is("first"));
+        assertThat(recovered.get(0).getDomains(), is(List.of("earth.planet", "univer.ze")));
+        assertThat(recovered.get(0).getRecipients("univer.ze"), is("zaphod@univer.ze"));
+        assertThat(recovered.get(1).getSubject(), is("third"));
+        assertThat(recovered.get(1).getHash(), is((String) null));
+
+        // ids continue after the recovered ones, so the new message does not replace a recovered one
+        reopened.append(email("fourth"));
+        reopened.markDelivered(recovered.get(0));
+        reopened.close();
+
+        List<Email> remaining = new SpoolJournal(config).recover();
+        assertThat(remaining.size(), is(2));
+        assertThat(remaining.get(0).getSubject(), is("third"));
+        assertThat(remaining.get(1).getSubject(), is("fourth"));
+    }
+
+    @Test
+    public void deliveredSegments_areDeleted() throws Exception {
+        SpoolJournal journal = new SpoolJournal(config);
+        journal.recover();
+        Email[] emails = new Email[10];
+        for (int i = 0; i < emails.length; i++) {
+            emails[i] = email("subject " + i);
+            journal.append(emails[i]);
+        }
+        // a segment of 256 bytes only holds a few messages
+        assertThat(folder.getRoot().list().length > 2, is(true));
+
+        for (Email email : emails) {
+            journal.markDelivered(email);
+        }
+        assertThat(journal.pendingMessages(), is(0));
+        assertThat(folder.getRoot().list().length, is(1));
+        journal.close();
+
+        assertThat(new SpoolJournal(config).recover().size(), is(0));
+    }
+
+    @Test
+    public void spilledBodies_areRecoveredFromTheirFile() throws Exception {
+        config.setProperty("spill.dir", folder.newFolder("bodies").getAbsolutePath());
+        config.setProperty("spill.threshold", 16);
+        BodySpill spill = new BodySpill(config);
+        BodySpill.Writer writer = spill.create();
+        byte[] body = "  a body that is streamed to disk \r".getBytes(StandardCharsets.UTF_8);
+        writer.write(body, 0, 10);
+        writer.write(body, 10, body.length - 10);
+        DataFile file = writer.finish();
+        assertThat(file.getLength(), is(31L));
+
+        SpoolJournal journal = new SpoolJournal(config);
+        journal.recover();
+        journal.append(builder("spilled").dataFile(file).build());
+        journal.close();
+
+        List<Email> recovered = new SpoolJournal(config).recover();
+        assertThat(recovered.get(0).getDataFile().getPath(), is(file.getPath()));
+        assertThat(recovered.get(0).getData(), is("a body that is streamed to disk"));
+        // the file of a recovered message is kept, any other file is left over from an unfinished message
+        spill.create().write(body, 0, body.length);
+        assertThat(spill.deleteUnreferenced(recovered), is(1));
+        assertThat(Files.exists(file.getPath()), is(true));
+    }
+
+    @Test
+    public void messageAppendedForOneDomain_isRecoveredForThatDomainOnly() throws Exception {
+        SpoolJournal journal = new SpoolJournal(config);
+        journal.recover();
+        journal.append(email("dead letter"), "univer.ze");
+        journal.close();
+
+        List<Email> recovered = new SpoolJournal(config).recover();
+        assertThat(recovered.get(0).getDomains(), is(List.of("univer.ze")));
+        assertThat(recovered.get(0).getRecipients("univer.ze"), is("zaphod@univer.ze"));
+        // the to line is kept, a hash covers it
+        assertThat(recovered.get(0).getTo(), is("zaphod@univer.ze,arthur@earth.planet"));
+    }
+
+    private Email email(String subject) {
+        return builder(subject).data("data").build();
+    }
+
+    private Email.Builder builder(String subject) {
+        Map<String, String> recipients = new LinkedHashMap<>();
+        recipients.put("earth.planet", "arthur@earth.planet");
+        recipients.put("univer.ze", "zaphod@univer.ze");
+        return new Email.Builder().from("trillian@earth.planet").to("zaphod@univer.ze,arthur@earth.planet")
+                .subject(subject).recipientsByDomain(recipients);
+    }
+}
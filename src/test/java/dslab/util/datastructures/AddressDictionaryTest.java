@@ -0,0 +1,49 @@
+package dslab.util.datastructures;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * AddressDictionaryTest.
+ */
+public class AddressDictionaryTest {
+
+    @Test
+    public void equalAddresses_shareOneInstance() {
+        String first = AddressDictionary.intern(new String("arthur@earth.planet"));
+        String second = AddressDictionary.intern(new String("arthur@earth.planet"));
+
+        assertThat(second, is(sameInstance(first)));
+    }
+
+    @Test
+    public void randomAddresses_areEvictedButRecentlyUsedOnesStay() {
+        String sender = AddressDictionary.intern(new String("trillian@earth.planet"));
+        for (int i = 0; i < 4 * AddressDictionary.MAX_ENTRIES; i++) {
+            AddressDictionary.intern("random" + i + "@univer.ze");
+            if (i % 1000 == 0) {
+                // an active sender keeps being used
+                AddressDictionary.intern(new String("trillian@earth.planet"));
+            }
+        }
+
+        assertTrue(AddressDictionary.size() <= AddressDictionary.MAX_ENTRIES);
+        assertThat(AddressDictionary.intern(new String("trillian@earth.planet")), is(sameInstance(sender)));
+        String evicted = "random0@univer.ze";
+        assertThat(AddressDictionary.intern(evicted), is(sameInstance(evicted)));
+    }
+
+    @Test
+    public void recipientLists_areNotInterned() {
+        Email first = new Email("trillian@earth.planet", new String("arthur@earth.planet,zaphod@univer.ze"), "s", "d");
+        Email second = new Email("trillian@earth.planet", new String("arthur@earth.planet,zaphod@univer.ze"), "s", "d");
+
+        assertThat(second.getTo(), is(not(sameInstance(first.getTo()))));
+        assertThat(second.getFrom(), is(sameInstance(first.getFrom())));
+    }
+}
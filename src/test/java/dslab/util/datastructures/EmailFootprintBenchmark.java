@@ -0,0 +1,102 @@
+package dslab.util.datastructures;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the heap retained per stored message by the compact {@link Email} and by the mutable POJO of Strings it
+ * replaced, reproduced here as {@link LegacyEmail}.
+ * <p>
+ * The messages look like the ones a mailbox server stores: a few senders, two recipients on two domains, a short
+ * subject, a small body and a hash. Every field is a new String as the DMTP parser creates it for every transaction.
+ * The heap is measured after a full GC, with all messages still reachable.
+ * <p>
+ * Run with {@code java -cp <test classpath> dslab.util.datastructures.EmailFootprintBenchmark}.
+ */
+public class EmailFootprintBenchmark {
+
+    private static final int MESSAGES = 200_000;
+    private static final int SENDERS = 50;
+    private static final String BODY = "Don't panic, the answer is 42. Bring a towel and meet me at the restaurant at "
+            + "the end of the universe, the table is booked for eight.";
+    private static final String HASH = "nOiOHSqL3bBUCGZSB6kNCLAjjyOMmbgqcpHpmjSrCwo=";
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            long legacy = retainedPerMessage(EmailFootprintBenchmark::legacyEmail);
+            long compact = retainedPerMessage(EmailFootprintBenchmark::compactEmail);
+            System.out.printf("LegacyEmail %d bytes/message%n", legacy);
+            System.out.printf("Email       %d bytes/message (%d%% less)%n", compact, 100 - compact * 100 / legacy);
+        }
+    }
+
+    private static long retainedPerMessage(IntFunction<Object> factory) throws InterruptedException {
+        List<Object> stored = new ArrayList<>(MESSAGES);
+        long before = usedHeap();
+        for (int i = 0; i < MESSAGES; i++) {
+            stored.add(factory.apply(i));
+        }
+        long after = usedHeap();
+        long perMessage = (after - before) / stored.size();
+        stored.clear();
+        return perMessage;
+    }
+
+    private static Email compactEmail(int i) {
+        Map<String, String> recipients = new LinkedHashMap<>();
+        recipients.put(copy("earth.planet"), copy("arthur@earth.planet"));
+        recipients.put(copy("univer.ze"), copy("zaphod@univer.ze"));
+        return new Email.Builder().from(copy("sender" + i % SENDERS + "@earth.planet"))
+                .to(copy("arthur@earth.planet,zaphod@univer.ze")).subject(copy("dinner " + i)).data(copy(BODY))
+                .hash(copy(HASH)).recipientsByDomain(recipients).build();
+    }
+
+    private static LegacyEmail legacyEmail(int i) {
+        Map<String, String> recipients = new LinkedHashMap<>();
+        recipients.put(copy("earth.planet"), copy("arthur@earth.planet"));
+        recipients.put(copy("univer.ze"), copy("zaphod@univer.ze"));
+        LegacyEmail email = new LegacyEmail();
+        email.from = copy("sender" + i % SENDERS + "@earth.planet");
+        email.to = copy("arthur@earth.planet,zaphod@univer.ze");
+        email.subject = copy("dinner " + i);
+        email.data = copy(BODY);
+        email.hash = copy(HASH);
+        email.recipientsByDomain = recipients;
+        email.domains = new ArrayList<>(recipients.keySet());
+        return email;
+    }
+
+    // a new instance, as parsing a request line creates one
+    private static String copy(String value) {
+        return new String(value.toCharArray());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // the fields of the Email before it became immutable
+    private static class LegacyEmail {
+        private String from;
+        private String to;
+        private String subject;
+        private String data;
+        private byte[] compressedData;
+        private byte[] dataBytes;
+        private DataFile dataFile;
+        private List<String> domains;
+        private Map<String, String> recipientsByDomain;
+        private String hash;
+        private long id = -1;
+    }
+}
@@ -0,0 +1,103 @@
+package dslab.util.datastructures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dslab.MicroBenchmark;
+
+/**
+ * Compares the {@link DataQueue} with the lock-free ring buffers, using the same producer/consumer
+ * pattern as the transfer server's MessageDistributer.
+ * <p>
+ * Run with {@code java -cp <test classpath> dslab.util.datastructures.QueueBenchmark}.
+ */
+public class QueueBenchmark {
+
+    private static final int MESSAGES = 200_000;
+    private static final int CAPACITY = 16;
+    private static final Email EMAIL = new Email("trillian@earth.planet", "arthur@earth.planet", "subject", "data");
+
+    public static void main(String[] args) throws Exception {
+        int[][] shapes = {{1, 1}, {4, 1}, {4, 4}};
+        for (int[] shape : shapes) {
+            int producers = shape[0];
+            int consumers = shape[1];
+            String suffix = " " + producers + "P/" + consumers + "C";
+            MicroBenchmark.measure("DataQueue" + suffix, MESSAGES, 3, 5,
+                    () -> runDataQueue(producers, consumers));
+            if (consumers == 1) {
+                MicroBenchmark.measure("MpscRingBuffer" + suffix, MESSAGES, 3, 5,
+                        () -> runRingBuffer(new MpscRingBuffer<>(CAPACITY), producers, consumers));
+            }
+            MicroBenchmark.measure("MpmcRingBuffer" + suffix, MESSAGES, 3, 5,
+                    () -> runRingBuffer(new MpmcRingBuffer<>(CAPACITY), producers, consumers));
+        }
+    }
+
+    private static void runDataQueue(int producers, int consumers) throws InterruptedException {
+        DataQueue queue = new DataQueue(CAPACITY);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            threads.add(start(() -> {
+                for (int i = 0; i < MESSAGES / producers; i++) {
+                    while (!queue.add(EMAIL)) {
+                        queue.waitOnFull(1);
+                    }
+                    queue.notifyAllForEmpty();
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(start(() -> {
+                for (int i = 0; i < MESSAGES / consumers; i++) {
+                    while (queue.poll() == null) {
+                        queue.waitOnEmpty(1);
+                    }
+                    queue.notifyAllForFull();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void runRingBuffer(AbstractRingBuffer<Email> queue, int producers, int consumers)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            threads.add(start(() -> {
+                for (int i = 0; i < MESSAGES / producers; i++) {
+                    queue.put(EMAIL);
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(start(() -> {
+                for (int i = 0; i < MESSAGES / consumers; i++) {
+                    queue.poll(1, TimeUnit.SECONDS);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static Thread start(InterruptibleTask task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private interface InterruptibleTask {
+        void run() throws InterruptedException;
+    }
+}
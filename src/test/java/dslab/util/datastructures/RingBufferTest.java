@@ -0,0 +1,132 @@
+package dslab.util.datastructures;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * RingBufferTest.
+ */
+public class RingBufferTest {
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertThat(new MpscRingBuffer<Integer>(10).capacity(), is(16));
+        assertThat(new MpmcRingBuffer<Integer>(1).capacity(), is(1));
+    }
+
+    @Test
+    public void offerAndPoll_keepFifoOrderAndRespectCapacity() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(i), is(true));
+        }
+        assertThat(buffer.offer(4), is(false));
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.poll(), is(i));
+        }
+        assertThat(buffer.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void offerAll_insertsAllOrNothing() {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(4);
+        assertThat(buffer.offer(0), is(true));
+        assertThat(buffer.offerAll(List.of(1, 2, 3)), is(true));
+        assertThat(buffer.poll(), is(0));
+        // only one slot is free
+        assertThat(buffer.offerAll(List.of(4, 5)), is(false));
+        assertThat(buffer.size(), is(3));
+        assertThat(buffer.offerAll(List.of(4)), is(true));
+        for (int i = 1; i <= 4; i++) {
+            assertThat(buffer.poll(), is(i));
+        }
+    }
+
+    @Test
+    public void timedPollOnEmptyBuffer_returnsNullAfterTimeout() throws Exception {
+        MpmcRingBuffer<Integer> buffer = new MpmcRingBuffer<>(4);
+        assertThat(buffer.poll(10, TimeUnit.MILLISECONDS), is(nullValue()));
+        assertThat(buffer.offer(1, 10, TimeUnit.MILLISECONDS), is(true));
+    }
+
+    @Test
+    public void mpsc_concurrentProducers_deliverEveryElementOnce() throws Exception {
+        MpscRingBuffer<Long> buffer = new MpscRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 50000;
+        List<Thread> threads = startProducers(buffer, producers, perProducer);
+
+        long sum = 0;
+        for (int i = 0; i < producers * perProducer; i++) {
+            sum += buffer.take();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(sum, is(expectedSum(producers, perProducer)));
+        assertThat(buffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void mpmc_concurrentProducersAndConsumers_deliverEveryElementOnce() throws Exception {
+        MpmcRingBuffer<Long> buffer = new MpmcRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 50000;
+        int consumers = 3;
+        AtomicLong sum = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+        List<Thread> threads = startProducers(buffer, producers, perProducer);
+        for (int c = 0; c < consumers; c++) {
+            Thread consumer = new Thread(() -> {
+                try {
+                    while (received.get() < (long) producers * perProducer) {
+                        Long value = buffer.poll(10, TimeUnit.MILLISECONDS);
+                        if (value != null) {
+                            sum.addAndGet(value);
+                            received.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            consumer.start();
+            threads.add(consumer);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(received.get(), is((long) producers * perProducer));
+        assertThat(sum.get(), is(expectedSum(producers, perProducer)));
+    }
+
+    private List<Thread> startProducers(AbstractRingBuffer<Long> buffer, int producers, int perProducer) {
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread producer = new Thread(() -> {
+                try {
+                    for (long i = 1; i <= perProducer; i++) {
+                        buffer.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            threads.add(producer);
+        }
+        return threads;
+    }
+
+    private long expectedSum(int producers, long perProducer) {
+        return producers * perProducer * (perProducer + 1) / 2;
+    }
+}
@@ -0,0 +1,62 @@
+package dslab.util.dmtp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import dslab.util.datastructures.Email;
+
+/**
+ * DataCompressionTest.
+ */
+public class DataCompressionTest {
+
+    @Test
+    public void capability_isReadFromTheGreeting() {
+        assertThat(DataCompression.isAnnounced("ok DMTP2.0 deflate"), is(true));
+        assertThat(DataCompression.isAnnounced("ok DMTP2.0"), is(false));
+        assertThat(DataCompression.isAnnounced("ok DMTP2.0 deflatex"), is(false));
+    }
+
+    @Test
+    public void compressedData_isInflatedWhenRead() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            body.append("don't panic \u00e4\u00f6\u00fc ").append(i % 10).append(' ');
+        }
+        String encoded = DataCompression.encode(body.toString());
+        assertThat(encoded.length() < body.length() / 4, is(true));
+        assertThat(encoded.contains("\n"), is(false));
+
+        Email.Builder builder = new Email.Builder().from("trillian@earth.planet").to("arthur@earth.planet")
+                .subject("compressed");
+        assertThat(builder.isComplete(), is(false));
+        Email email = builder.compressedData(DataCompression.decode(encoded)).build();
+        assertThat(builder.isComplete(), is(true));
+        assertThat(email.hasData(), is(true));
+        assertThat(email.getData(), is(body.toString()));
+    }
+
+    @Test
+    public void streamedBody_isEncodedLikeABodyInMemory() throws Exception {
+        byte[] body = "a body read from a file ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataCompression.encode(new ByteArrayInputStream(body), out);
+        String encoded = out.toString(StandardCharsets.US_ASCII);
+        assertThat(DataCompression.inflate(DataCompression.decode(encoded)),
+                is(new String(body, StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedStream_isRejected() {
+        byte[] compressed = DataCompression.deflate("some data that is long enough to be truncated");
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        DataCompression.inflate(truncated);
+    }
+}
@@ -0,0 +1,103 @@
+package dslab.util.dmtp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import dslab.MicroBenchmark;
+
+/**
+ * Compares the {@link DmtpParser} with the split/regex based parsing the request handlers used before, on the
+ * lines of a typical DMTP transaction.
+ * <p>
+ * Run with {@code java -cp <test classpath> dslab.util.dmtp.DmtpParserBenchmark}.
+ */
+public class DmtpParserBenchmark {
+
+    private static final String[] TRANSACTION = {
+        "begin",
+        "from trillian@earth.planet",
+        "to arthur@earth.planet,zaphod@univer.ze,ford@earth.planet",
+        "subject a subject of moderate length",
+        "data some message data that is a bit longer than the subject of the message",
+        "hash pLbeQkF7AlZHUYhd7Ft0e0bHSd38iHvNDBl63lhR6lw=",
+        "send"
+    };
+    private static final int TRANSACTIONS = 200_000;
+    private static final int COMMANDS = TRANSACTIONS * TRANSACTION.length;
+    // keeps the results alive, so the JIT cannot drop the parsing
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        MicroBenchmark.measure("split/regex", COMMANDS, 3, 5, DmtpParserBenchmark::runSplit);
+        MicroBenchmark.measure("DmtpParser", COMMANDS, 3, 5, DmtpParserBenchmark::runParser);
+        System.out.println(sink);
+    }
+
+    private static void runSplit() {
+        for (int t = 0; t < TRANSACTIONS; t++) {
+            for (String request : TRANSACTION) {
+                switch (request.split(" ")[0]) {
+                    case "from":
+                        String[] split = request.split(" ");
+                        sink += split.length > 2 || !split[1].matches("(.*)@(.*)") ? 0 : split[1].length();
+                        break;
+                    case "to":
+                        List<String> recipients = Arrays.stream(request.substring(3).split(","))
+                                .map(String::trim)
+                                .collect(Collectors.toList());
+                        List<String> domains = new ArrayList<>();
+                        for (String recipient : recipients) {
+                            domains.add(recipient.split("@")[1]);
+                        }
+                        sink += domains.stream().distinct().count();
+                        break;
+                    case "subject":
+                        sink += request.substring(7).trim().length();
+                        break;
+                    case "data":
+                        sink += request.substring(4).trim().length();
+                        break;
+                    case "hash":
+                        sink += request.split(" ").length;
+                        break;
+                    default:
+                        sink++;
+                }
+            }
+        }
+    }
+
+    private static void runParser() {
+        DmtpParser parser = new DmtpParser();
+        for (int t = 0; t < TRANSACTIONS; t++) {
+            for (String request : TRANSACTION) {
+                switch (parser.parse(request)) {
+                    case FROM:
+                        sink += parser.isSingleAddress() ? parser.argument().length() : 0;
+                        break;
+                    case TO:
+                        List<String> domains = new ArrayList<>();
+                        while (parser.nextAddress()) {
+                            String domain = parser.domain();
+                            if (!domains.contains(domain)) {
+                                domains.add(domain);
+                            }
+                        }
+                        sink += domains.size();
+                        break;
+                    case SUBJECT:
+                    case DATA:
+                        sink += parser.argument().length();
+                        break;
+                    case HASH:
+                        sink += parser.argumentCount();
+                        break;
+                    default:
+                        sink++;
+                }
+            }
+        }
+    }
+}
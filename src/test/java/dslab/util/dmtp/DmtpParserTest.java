@@ -0,0 +1,59 @@
+package dslab.util.dmtp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * DmtpParserTest.
+ */
+public class DmtpParserTest {
+
+    private final DmtpParser parser = new DmtpParser();
+
+    @Test
+    public void commands_areRecognizedByTheirFirstWord() {
+        assertThat(parser.parse("begin"), is(DmtpCommand.BEGIN));
+        assertThat(parser.argumentCount(), is(0));
+        assertThat(parser.parse("subject  hello world "), is(DmtpCommand.SUBJECT));
+        assertThat(parser.argument(), is("hello world"));
+        assertThat(parser.argumentCount(), is(2));
+        assertThat(parser.parse("sendx"), is(DmtpCommand.UNKNOWN));
+        assertThat(parser.parse(""), is(DmtpCommand.UNKNOWN));
+        assertThat(parser.parse(new StringBuilder("quit")), is(DmtpCommand.QUIT));
+    }
+
+    @Test
+    public void sender_mustBeASingleAddress() {
+        parser.parse("from trillian@earth.planet");
+        assertThat(parser.isSingleAddress(), is(true));
+        parser.parse("from trillian");
+        assertThat(parser.isSingleAddress(), is(false));
+        parser.parse("from a@b c@d");
+        assertThat(parser.isSingleAddress(), is(false));
+        parser.parse("from");
+        assertThat(parser.isSingleAddress(), is(false));
+    }
+
+    @Test
+    public void recipients_areWalkedWithoutSplitting() {
+        parser.parse("to arthur@earth.planet, zaphod@univer.ze ,trillian");
+
+        assertThat(parser.nextAddress(), is(true));
+        assertThat(parser.address(), is("arthur@earth.planet"));
+        assertThat(parser.localPart(), is("arthur"));
+        assertThat(parser.domain(), is("earth.planet"));
+        assertThat(parser.hasDomain("earth.planet"), is(true));
+        assertThat(parser.hasDomain("planet"), is(false));
+
+        assertThat(parser.nextAddress(), is(true));
+        assertThat(parser.address(), is("zaphod@univer.ze"));
+        assertThat(parser.hasDomain("univer.ze"), is(true));
+
+        assertThat(parser.nextAddress(), is(true));
+        assertThat(parser.isAddress(), is(false));
+        assertThat(parser.nextAddress(), is(false));
+        assertThat(parser.rawArgument(), is("arthur@earth.planet, zaphod@univer.ze ,trillian"));
+    }
+}